@@ -137,6 +137,31 @@ tasks {
     }
 }
 
+// Benchmarks, run with ./gradlew jmh (pass JMH options with -Pjmh.args="…")
+val jmh by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+    runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
+}
+dependencies {
+    "jmhImplementation"(libs.jmh.core)
+    "jmhAnnotationProcessor"(libs.jmh.generatorAnnprocess)
+}
+tasks {
+    named<JavaCompile>(jmh.compileJavaTaskName) {
+        options.errorprone {
+            // JMH generates code that doesn't pass our checks
+            excludedPaths = ".*/build/generated/.*"
+        }
+    }
+    register<JavaExec>("jmh") {
+        description = "Runs the JMH benchmarks."
+        group = LifecycleBasePlugin.VERIFICATION_GROUP
+        classpath = jmh.runtimeClasspath
+        mainClass = "org.openjdk.jmh.Main"
+        args(providers.gradleProperty("jmh.args").map { it.split(" ") }.getOrElse(emptyList()))
+    }
+}
+
 gradlePlugin {
     website.set("https://github.com/tbroyer/gradle-errorprone-plugin")
     vcsUrl.set("https://github.com/tbroyer/gradle-errorprone-plugin")
@@ -153,6 +178,18 @@ gradlePlugin {
                 }
             }
         }
+        register("errorproneSettings") {
+            id = "net.ltgt.errorprone-settings"
+            displayName = "Gradle Error Prone settings plugin"
+            implementationClass = "net.ltgt.gradle.errorprone.ErrorProneSettingsPlugin"
+            description = "Gradle settings plugin to share Error Prone defaults between all projects"
+            tags.addAll("javac", "error-prone")
+            compatibility {
+                features {
+                    configurationCache = true
+                }
+            }
+        }
     }
 }
 
@@ -1,14 +1,29 @@
 package net.ltgt.gradle.errorprone;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.TruthJUnit.assume;
 import static java.util.Objects.requireNonNull;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import java.util.zip.ZipFile;
 import org.gradle.testkit.runner.TaskOutcome;
+import org.gradle.util.GradleVersion;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -92,6 +107,102 @@ public class ErrorPronePluginIntegrationTest extends BasePluginIntegrationTest {
         .isEqualTo(TaskOutcome.SUCCESS);
   }
 
+  @Test
+  void canConfigureSharedDefaults() throws Exception {
+    // given
+    Files.writeString(
+        getSettingsFile(),
+        // language=kts
+        """
+        import net.ltgt.gradle.errorprone.*
+
+        plugins {
+            id("%s")
+        }
+        configure<ErrorProneDefaults> {
+            checks(mapOf("ArrayEquals" to CheckSeverity.OFF))
+        }
+        """
+            .formatted(ErrorProneSettingsPlugin.PLUGIN_ID));
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        errorproneDefaults {
+            disableWarningsInGeneratedCode = true
+        }
+        tasks.compileJava {
+            providers.gradleProperty("severity").orNull?.let {
+                options.errorprone.check("ArrayEquals", CheckSeverity.valueOf(it))
+            }
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeFailureSource();
+
+    // when
+    var result = buildWithArgs("compileJava");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+
+    // when
+    result = buildWithArgsAndFail("compileJava", "-Pseverity=ERROR");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+  }
+
+  @Test
+  void canShareDependencies() throws Exception {
+    // given
+    Files.writeString(
+        getSettingsFile(),
+        // language=kts
+        """
+        import net.ltgt.gradle.errorprone.*
+
+        plugins {
+            id("%s")
+        }
+        dependencyResolutionManagement {
+            repositories {
+                mavenCentral()
+            }
+        }
+        configure<ErrorProneDefaults> {
+            sharedDependencies.add("com.google.errorprone:error_prone_core:%s")
+        }
+        include("sub")
+        """
+            .formatted(ErrorProneSettingsPlugin.PLUGIN_ID, errorproneVersion));
+    var subprojectDir = Files.createDirectories(projectDir.resolve("sub"));
+    Files.writeString(
+        subprojectDir.resolve("build.gradle.kts"),
+        // language=kts
+        """
+        plugins {
+            `java-library`
+            id("%s")
+        }
+        """
+            .formatted(ErrorPronePlugin.PLUGIN_ID));
+    writeFailureSource();
+    Files.move(projectDir.resolve("src"), subprojectDir.resolve("src"));
+
+    // when
+    var result = buildWithArgsAndFail(":sub:compileJava");
+
+    // then
+    assertThat(requireNonNull(result.task(":sub:compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+  }
+
   @Test
   void canDisableErrorProne() throws Exception {
     // given
@@ -115,6 +226,239 @@ public class ErrorPronePluginIntegrationTest extends BasePluginIntegrationTest {
         .isEqualTo(TaskOutcome.SUCCESS);
   }
 
+  @Test
+  void checkDoesNotAnalyzeSeparatelyByDefault() throws Exception {
+    // given
+    writeSuccessSource();
+
+    // when
+    var result = buildWithArgs("check");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(result.task(":errorproneAnalyze")).isNull();
+    assertThat(result.task(":errorproneReport")).isNull();
+  }
+
+  @Test
+  void canAnalyzeSeparately() throws Exception {
+    // given
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        tasks.compileJava {
+            options.errorprone.analyzeSeparately.set(true)
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeFailureSource();
+
+    // when
+    var result = buildWithArgs("compileJava");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(result.task(":errorproneAnalyze")).isNull();
+
+    // when
+    result = buildWithArgsAndFail("check");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.UP_TO_DATE);
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":errorproneReport")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+
+    // Diagnostics are reported again even though the analysis is up-to-date
+
+    // when
+    result = buildWithArgsAndFail("check");
+
+    // then
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.UP_TO_DATE);
+    assertThat(requireNonNull(result.task(":errorproneReport")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+  }
+
+  @Test
+  void canAnalyzeInProcess() throws Exception {
+    // given
+    Files.writeString(
+        projectDir.resolve("gradle.properties"),
+        "org.gradle.jvmargs="
+            + String.join(" ", ErrorPronePlugin.JVM_ARGS_STRONG_ENCAPSULATION)
+            + "\n",
+        StandardOpenOption.APPEND);
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        tasks.compileJava {
+            options.errorprone.analyzeSeparately = true
+            options.errorprone.analyzeInProcess = true
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeFailureSource();
+
+    // when
+    var result = buildWithArgsAndFail("--info", "check");
+
+    // then
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":errorproneReport")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput()).doesNotContain("Analyzing in worker processes");
+    assertThat(result.getOutput()).contains("Metaspace of the Gradle daemon: ");
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+  }
+
+  @Test
+  void canWarmUpAnalysis() throws Exception {
+    // given
+    Files.writeString(
+        projectDir.resolve("gradle.properties"),
+        ErrorPronePlugin.WARM_UP_ANALYSIS_PROPERTY + "=true\n",
+        StandardOpenOption.APPEND);
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        tasks.compileJava {
+            options.errorprone.analyzeSeparately = true
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeFailureSource();
+
+    // when
+    var result = buildWithArgsAndFail("check");
+
+    // then
+    assertThat(requireNonNull(result.task(":errorproneWarmUp")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":errorproneTestWarmUp")).getOutcome())
+        .isEqualTo(TaskOutcome.SKIPPED);
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":errorproneReport")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+  }
+
+  @Test
+  void onlyAnalyzesChangedFiles() throws Exception {
+    // given
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        tasks.withType<JavaCompile>().configureEach {
+            options.errorprone.changedSince.set("HEAD")
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeFailureSource();
+    git("init", "--quiet");
+    git("add", ".");
+    git(
+        "-c", "user.name=Test", "-c", "user.email=test@example.com", "commit", "--quiet", "-m", "x");
+    writeSuccessSource();
+
+    // when
+    var result = buildWithArgs("compileJava");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+
+    // when
+    Files.writeString(
+        projectDir.resolve("src/main/java/test/Failure.java"),
+        "// changed\n",
+        StandardOpenOption.APPEND);
+    result = buildWithArgsAndFail("compileJava");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+  }
+
+  @Test
+  @DisabledOnOs(value = OS.WINDOWS, disabledReason = "Creating symbolic links needs privileges")
+  void onlyAnalyzesChangedFilesFromSymlinkedProjectDirectory(@TempDir Path linkDir)
+      throws Exception {
+    // given
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        tasks.withType<JavaCompile>().configureEach {
+            options.errorprone.changedSince.set("HEAD")
+        }
+        tasks.compileTestJava {
+            options.errorprone.analyzeSeparately.set(true)
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeSuccessSource();
+    Files.createDirectories(projectDir.resolve("src/test/java/test"));
+    Files.copy(
+        projectDir.resolve("src/main/java/test/Success.java"),
+        projectDir.resolve("src/test/java/test/Success.java"));
+    git("init", "--quiet");
+    git("add", ".");
+    git(
+        "-c", "user.name=Test", "-c", "user.email=test@example.com", "commit", "--quiet", "-m", "x");
+    writeFailureSource();
+    Files.writeString(
+        projectDir.resolve("src/test/java/test/TestFailure.java"),
+        Files.readString(projectDir.resolve("src/main/java/test/Failure.java"))
+            .replace("class Failure", "class TestFailure"));
+    // git resolves symbolic links, the project directory as seen by Gradle might not
+    var link = Files.createSymbolicLink(linkDir.resolve("project"), projectDir);
+
+    // when
+    var result = prepareBuild("compileJava").withProjectDir(link.toFile()).buildAndFail();
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+
+    // when
+    Files.delete(projectDir.resolve("src/main/java/test/Failure.java"));
+    result = prepareBuild("errorproneTestAnalyze").withProjectDir(link.toFile()).buildAndFail();
+
+    // then
+    assertThat(requireNonNull(result.task(":errorproneTestReport")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput()).contains("TestFailure.java:6: error: [ArrayEquals]");
+  }
+
+  private void git(String... args) throws Exception {
+    var command = new ArrayList<String>();
+    command.add("git");
+    command.addAll(List.of(args));
+    var process = new ProcessBuilder(command).directory(projectDir.toFile()).inheritIO().start();
+    assertThat(process.waitFor()).isEqualTo(0);
+  }
+
   @Test
   void configurationNonRegressionTest() throws Exception {
     // given
@@ -135,6 +479,7 @@ public class ErrorPronePluginIntegrationTest extends BasePluginIntegrationTest {
                     ignoreUnknownCheckNames.set(false)
                     ignoreSuppressionAnnotations.set(false)
                     compilingTestOnlyCode.set(false)
+                    analyzeSeparately.set(false)
                     excludedPaths.set("should.not.match.anything")
 
                     check("Foo" to CheckSeverity.ERROR, "Bar" to CheckSeverity.DEFAULT)
@@ -414,31 +759,153 @@ public class ErrorPronePluginIntegrationTest extends BasePluginIntegrationTest {
     assertThat(result.getOutput()).contains("-Xplugin:ErrorProne");
   }
 
-  // Inspired by
-  // https://docs.gradle.org/current/userguide/build_cache.html#sec:task_output_caching_example
   @Test
-  @DisabledOnOs(OS.WINDOWS) // See https://github.com/gradle/gradle/issues/12535
-  void isBuildCacheFriendly(@TempDir Path testKitDir, @TempDir Path otherDir) throws Exception {
+  void isIsolatedProjectsCompatible() throws Exception {
+    assume().that(testGradleVersion).isAtLeast(GradleVersion.version("8.8"));
     // given
     Files.writeString(
-        getBuildFile(),
+        getSettingsFile(),
         """
 
-        tasks.withType<JavaCompile>().configureEach {
-            options.errorprone {
-                argumentFiles.from("ep_argfile.cfg")
-            }
-        }
+        include(":sub")
         """,
         StandardOpenOption.APPEND);
-    Files.createFile(projectDir.resolve("ep_argfile.cfg"));
+    var subProjectDir = Files.createDirectory(projectDir.resolve("sub"));
+    Files.writeString(
+        subProjectDir.resolve("build.gradle.kts"),
+        // language=kts
+        """
+        plugins {
+            `java-library`
+            id("%s")
+        }
+        repositories {
+            mavenCentral()
+        }
+        dependencies {
+            errorprone("com.google.errorprone:error_prone_core:%s")
+        }
+        """
+            .formatted(ErrorPronePlugin.PLUGIN_ID, errorproneVersion));
     writeSuccessSource();
+    Files.createDirectories(subProjectDir.resolve("src/main/java/test"));
+    Files.copy(
+        projectDir.resolve("src/main/java/test/Success.java"),
+        subProjectDir.resolve("src/main/java/test/Success.java"));
 
-    // Prime the build cache
+    // Prime the configuration cache; any violation would fail the build
     var result =
-        prepareBuild("--build-cache", "compileJava").withTestKitDir(testKitDir.toFile()).build();
+        buildWithArgs("-Dorg.gradle.unsafe.isolated-projects=true", "--debug", "compileJava");
     assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
         .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":sub:compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(result.getOutput()).contains("-Xplugin:ErrorProne");
+
+    // when
+    result =
+        buildWithArgs("-Dorg.gradle.unsafe.isolated-projects=true", "--rerun-tasks", "compileJava");
+
+    // then
+    assertThat(result.getOutput()).contains("Reusing configuration cache.");
+  }
+
+  // Inspired by
+  // https://docs.gradle.org/current/userguide/build_cache.html#sec:task_output_caching_example
+  @Test
+  void replaysCompilationWarningsWhenUpToDate() throws Exception {
+    // given
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        tasks.compileJava {
+            options.errorprone.warn("ArrayEquals")
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeFailureSource();
+
+    var result = buildWithArgs("compileJava");
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(result.getOutput()).contains("Failure.java:6: warning: [ArrayEquals]");
+
+    // when
+    result = buildWithArgs("compileJava");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.UP_TO_DATE);
+    assertThat(result.getOutput())
+        .contains("Error Prone warnings from the previous execution of :compileJava:");
+    assertThat(result.getOutput()).contains("Failure.java:6: warning: [ArrayEquals]");
+
+    // when
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        tasks.compileJava {
+            options.errorprone.disable("ArrayEquals")
+        }
+        """,
+        StandardOpenOption.APPEND);
+    result = buildWithArgs("compileJava");
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    result = buildWithArgs("compileJava");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.UP_TO_DATE);
+    assertThat(result.getOutput()).doesNotContain("Failure.java:6: warning: [ArrayEquals]");
+  }
+
+  @Test
+  @DisabledOnOs(OS.WINDOWS) // See https://github.com/gradle/gradle/issues/12535
+  void isBuildCacheFriendly(@TempDir Path testKitDir, @TempDir Path otherDir) throws Exception {
+    // given
+    Files.writeString(
+        getBuildFile(),
+        """
+
+        tasks.withType<JavaCompile>().configureEach {
+            options.errorprone {
+                argumentFiles.from("ep_argfile.cfg")
+                excludeDirectory("src/main/java/legacy")
+                excludeGeneratedSources.set(true)
+                changedFiles.add(file("src/main/java/test/Success.java").absolutePath)
+            }
+        }
+        tasks.compileTestJava {
+            options.errorprone {
+                analyzeSeparately.set(true)
+                changedFiles.set(setOf(file("src/test/java/test/Failure.java").absolutePath))
+                warn("ArrayEquals")
+            }
+        }
+        """,
+        StandardOpenOption.APPEND);
+    Files.createFile(projectDir.resolve("ep_argfile.cfg"));
+    writeSuccessSource();
+    writeFailureSource();
+    Files.createDirectories(projectDir.resolve("src/test/java/test"));
+    Files.move(
+        projectDir.resolve("src/main/java/test/Failure.java"),
+        projectDir.resolve("src/test/java/test/Failure.java"));
+
+    // Prime the build cache
+    var result =
+        prepareBuild("--build-cache", "compileJava", "errorproneTestAnalyze")
+            .withTestKitDir(testKitDir.toFile())
+            .build();
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":errorproneTestAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
 
     // Delete the local state
     prepareBuild("clean").withTestKitDir(testKitDir.toFile()).build();
@@ -456,7 +923,7 @@ public class ErrorPronePluginIntegrationTest extends BasePluginIntegrationTest {
 
     // when
     result =
-        prepareBuild("--build-cache", "compileJava")
+        prepareBuild("--build-cache", "compileJava", "errorproneTestAnalyze")
             .withTestKitDir(testKitDir.toFile())
             .withProjectDir(otherDir.toFile())
             .build();
@@ -464,6 +931,559 @@ public class ErrorPronePluginIntegrationTest extends BasePluginIntegrationTest {
     // then
     assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
         .isEqualTo(TaskOutcome.FROM_CACHE);
+    assertThat(requireNonNull(result.task(":errorproneTestAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.FROM_CACHE);
+    // Replayed diagnostics point to the relocated sources
+    var failureSource = otherDir.resolve("src/test/java/test/Failure.java").toString();
+    assertThat(result.getOutput()).contains(failureSource + ":6: warning: [ArrayEquals]");
+  }
+
+  @Test
+  void canShardSeparateAnalysis() throws Exception {
+    // given
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        tasks.compileJava {
+            options.errorprone {
+                analyzeSeparately.set(true)
+                analysisShards.set(2)
+            }
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeFailureSource();
+    Files.createDirectories(projectDir.resolve("src/main/java/test2"));
+    Files.writeString(
+        projectDir.resolve("src/main/java/test2/Failure.java"),
+        Files.readString(projectDir.resolve("src/main/java/test/Failure.java"))
+            .replace("package test;", "package test2;"));
+
+    // when
+    var result = buildWithArgsAndFail("errorproneAnalyze");
+
+    // then
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":errorproneReport")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    var report = Files.readString(projectDir.resolve("build/reports/errorprone/main.txt"));
+    assertThat(report)
+        .contains("test%sFailure.java:6: error: [ArrayEquals]".formatted(File.separator));
+    assertThat(report)
+        .contains("test2%sFailure.java:6: error: [ArrayEquals]".formatted(File.separator));
+    assertThat(report).contains("2 errors");
+  }
+
+  @Test
+  void reusesFindingsOfUnchangedSources() throws Exception {
+    // given
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        tasks.compileJava {
+            options.errorprone.analyzeSeparately.set(true)
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeSuccessSource();
+    writeFailureSource();
+    var findingsDir = projectDir.resolve("build/errorprone/main/findings");
+
+    var result = buildWithArgsAndFail("errorproneAnalyze");
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":errorproneReport")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    List<String> findings;
+    try (var files = Files.list(findingsDir)) {
+      findings = files.map(file -> file.getFileName().toString()).toList();
+    }
+    assertThat(findings).hasSize(3); // one for each source file, and one for global diagnostics
+
+    // when
+    Files.writeString(
+        projectDir.resolve("src/main/java/test/Success.java"),
+        "// changed\n",
+        StandardOpenOption.APPEND);
+    result = buildWithArgsAndFail("errorproneAnalyze");
+
+    // then
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":errorproneReport")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+    List<String> newFindings;
+    try (var files = Files.list(findingsDir)) {
+      newFindings = files.map(file -> file.getFileName().toString()).toList();
+    }
+    assertThat(newFindings).hasSize(3);
+    // findings for Failure.java and global diagnostics are kept, those for Success.java replaced
+    assertThat(newFindings.stream().filter(findings::contains).toList()).hasSize(2);
+  }
+
+  @Test
+  void onlyRunsChangedChecksOnUnchangedSources() throws Exception {
+    // given
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        tasks.compileJava {
+            options.errorprone {
+                analyzeSeparately.set(true)
+                check("ArrayEquals",
+                    providers.gradleProperty("severity").map { CheckSeverity.valueOf(it) }.orElse(CheckSeverity.WARN))
+            }
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeFailureSource();
+
+    var result = buildWithArgs("errorproneAnalyze");
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(result.getOutput()).contains("Failure.java:6: warning: [ArrayEquals]");
+
+    // when
+    result = buildWithArgsAndFail("--info", "-Pseverity=ERROR", "errorproneAnalyze");
+
+    // then
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":errorproneReport")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput())
+        .contains("Only running checks [ArrayEquals] on 1 previously analyzed source files");
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+    assertThat(result.getOutput()).doesNotContain("Failure.java:6: warning: [ArrayEquals]");
+  }
+
+  @Test
+  void onlyRunsChangedChecksWhenDisablingChecksForMissingLibraries() throws Exception {
+    // given
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        tasks.compileJava {
+            options.errorprone {
+                analyzeSeparately.set(true)
+                disableChecksForMissingLibraries.set(true)
+                check("ArrayEquals",
+                    providers.gradleProperty("severity").map { CheckSeverity.valueOf(it) }.orElse(CheckSeverity.WARN))
+            }
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeFailureSource();
+
+    var result = buildWithArgs("errorproneAnalyze");
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(result.getOutput()).contains("Failure.java:6: warning: [ArrayEquals]");
+
+    // when
+    result = buildWithArgsAndFail("--info", "-Pseverity=ERROR", "errorproneAnalyze");
+
+    // then
+    assertThat(requireNonNull(result.task(":errorproneReport")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput())
+        .contains("Only running checks [ArrayEquals] on 1 previously analyzed source files");
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+  }
+
+  @Test
+  @DisabledOnOs(OS.WINDOWS) // See https://github.com/gradle/gradle/issues/12535
+  void separateAnalysisDoesNotAffectCompilationCacheKey(@TempDir Path testKitDir)
+      throws Exception {
+    // given
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        tasks.withType<JavaCompile>().configureEach {
+            options.errorprone {
+                analyzeSeparately.set(true)
+                enabled.set(!providers.gradleProperty("errorprone-disabled").isPresent())
+                check("ArrayEquals",
+                    providers.gradleProperty("errorprone-check-enabled").map { CheckSeverity.ERROR }.orElse(CheckSeverity.OFF))
+            }
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeFailureSource();
+
+    // Prime the build cache
+    var result = prepareBuild("--build-cache", "check").withTestKitDir(testKitDir.toFile()).build();
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+
+    // Delete the local state
+    prepareBuild("clean").withTestKitDir(testKitDir.toFile()).build();
+
+    // when
+    result = prepareBuild("--build-cache", "check").withTestKitDir(testKitDir.toFile()).build();
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.FROM_CACHE);
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.FROM_CACHE);
+
+    // Changing the configuration only affects the analysis
+
+    // when
+    result =
+        prepareBuild("--build-cache", "check", "-Perrorprone-check-enabled")
+            .withTestKitDir(testKitDir.toFile())
+            .buildAndFail();
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.UP_TO_DATE);
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":errorproneReport")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+
+    // Disabling Error Prone reuses cached compilation outputs
+
+    // given
+    prepareBuild("clean").withTestKitDir(testKitDir.toFile()).build();
+
+    // when
+    result =
+        prepareBuild("--build-cache", "check", "-Perrorprone-disabled")
+            .withTestKitDir(testKitDir.toFile())
+            .build();
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.FROM_CACHE);
+    assertThat(requireNonNull(result.task(":errorproneAnalyze")).getOutcome())
+        .isEqualTo(TaskOutcome.SKIPPED);
+  }
+
+  @Test
+  void skipsVariantsOfCanonicalCompilation() throws Exception {
+    // given
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        val compileVariantJava by tasks.registering(JavaCompile::class) {
+            source = sourceSets.main.get().java
+            classpath = sourceSets.main.get().compileClasspath
+            options.annotationProcessorPath = sourceSets.main.get().annotationProcessorPath
+            destinationDirectory = layout.buildDirectory.dir("classes/java/variant")
+            options.errorprone.enabled = true
+            options.errorprone.analyzedBy = ":compileJava"
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeFailureSource();
+
+    // when
+    var result = buildWithArgsAndFail("--continue", "compileJava", "compileVariantJava");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(requireNonNull(result.task(":compileVariantJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(result.getOutput().split(Pattern.quote(FAILURE_SOURCE_COMPILATION_ERROR), -1))
+        .hasLength(2);
+  }
+
+  @Test
+  void canShareCompilerDaemon() throws Exception {
+    // given
+    Files.writeString(
+        projectDir.resolve("gradle.properties"),
+        ErrorPronePlugin.SHARE_COMPILER_DAEMON_PROPERTY + "=true\n",
+        StandardOpenOption.APPEND);
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        val compileVariantJava by tasks.registering(JavaCompile::class) {
+            source = sourceSets.main.get().java
+            classpath = sourceSets.main.get().compileClasspath
+            options.annotationProcessorPath = sourceSets.main.get().annotationProcessorPath
+            destinationDirectory = layout.buildDirectory.dir("classes/java/variant")
+            options.errorprone.enabled = true
+            options.forkOptions.jvmArgs = listOf("-Xss4m", "-Dfoo=bar")
+        }
+        tasks.withType<JavaCompile>().configureEach {
+            options.isFork = true
+        }
+        tasks.compileJava {
+            options.forkOptions.jvmArgs = listOf("-Dfoo=bar", "-Xss4m")
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeSuccessSource();
+
+    // when
+    var result = buildWithArgs("--info", "compileJava", "compileVariantJava");
+
+    // then
+    assertThat(result.getOutput())
+        .contains(
+            "2 forked Error Prone compilations used 1 distinct compiler daemon fork options"
+                + " (reuse rate: 50%)");
+
+    // Recycle the daemon after each compilation
+
+    // given
+    Files.writeString(
+        projectDir.resolve("gradle.properties"),
+        ErrorPronePlugin.COMPILER_DAEMON_MAX_COMPILATIONS_PROPERTY + "=1\n",
+        StandardOpenOption.APPEND);
+
+    // when
+    result = buildWithArgs("--info", "--rerun-tasks", "compileJava", "compileVariantJava");
+
+    // then
+    assertThat(result.getOutput())
+        .contains(
+            "2 forked Error Prone compilations used 2 distinct compiler daemon fork options"
+                + " (reuse rate: 0%)");
+  }
+
+  @Test
+  void separatePluginPathKeepsCompilationIncremental() throws Exception {
+    // given
+    Files.writeString(
+        projectDir.resolve("gradle.properties"),
+        ErrorPronePlugin.SEPARATE_PLUGIN_PATH_PROPERTY + "=true\n",
+        StandardOpenOption.APPEND);
+    Files.writeString(
+        getSettingsFile(),
+        """
+
+        include(":processor")
+        """,
+        StandardOpenOption.APPEND);
+    // A non-incremental annotation processor, that would force full recompilations if detected
+    var processorProjectDir = Files.createDirectory(projectDir.resolve("processor"));
+    Files.writeString(
+        processorProjectDir.resolve("build.gradle.kts"),
+        // language=kts
+        """
+        plugins {
+            java
+        }
+        """);
+    Files.writeString(
+        Files.createDirectories(
+                processorProjectDir.resolve("src/main/resources/META-INF/services"))
+            .resolve("javax.annotation.processing.Processor"),
+        "processor.NoopProcessor\n");
+    Files.writeString(
+        Files.createDirectories(processorProjectDir.resolve("src/main/java/processor"))
+            .resolve("NoopProcessor.java"),
+        // language=java
+        """
+        package processor;
+
+        import java.util.Set;
+        import javax.annotation.processing.AbstractProcessor;
+        import javax.annotation.processing.RoundEnvironment;
+        import javax.lang.model.SourceVersion;
+        import javax.lang.model.element.TypeElement;
+
+        public class NoopProcessor extends AbstractProcessor {
+            @Override
+            public Set<String> getSupportedAnnotationTypes() {
+                return Set.of("*");
+            }
+
+            @Override
+            public SourceVersion getSupportedSourceVersion() {
+                return SourceVersion.latestSupported();
+            }
+
+            @Override
+            public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+                return false;
+            }
+        }
+        """);
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        dependencies {
+            errorprone(project(":processor"))
+        }
+        """,
+        StandardOpenOption.APPEND);
+    var sourceDir = Files.createDirectories(projectDir.resolve("src/main/java/test"));
+    Files.writeString(
+        sourceDir.resolve("A.java"),
+        // language=java
+        """
+        package test;
+
+        class A {}
+        """);
+    Files.writeString(
+        sourceDir.resolve("B.java"),
+        // language=java
+        """
+        package test;
+
+        class B {}
+        """);
+    var result = buildWithArgs("compileJava");
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    var classB = projectDir.resolve("build/classes/java/main/test/B.class");
+    var classBLastModified = Files.getLastModifiedTime(classB);
+
+    // when
+    Files.writeString(
+        sourceDir.resolve("A.java"),
+        // language=java
+        """
+        package test;
+
+        class A {
+            void changed() {}
+        }
+        """);
+    result = buildWithArgs("--info", "compileJava");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(result.getOutput()).doesNotContain("Full recompilation is required");
+    assertThat(Files.getLastModifiedTime(classB)).isEqualTo(classBLastModified);
+  }
+
+  @Test
+  void canMergePluginPath() throws Exception {
+    // given
+    Files.writeString(
+        projectDir.resolve("gradle.properties"),
+        ErrorPronePlugin.MERGE_PLUGIN_PATH_PROPERTY + "=true\n",
+        StandardOpenOption.APPEND);
+    writeFailureSource();
+
+    // when
+    var result = buildWithArgsAndFail("compileJava");
+
+    // then
+    assertThat(
+            requireNonNull(result.task(":" + ErrorPronePlugin.MERGE_PLUGIN_PATH_TASK_NAME))
+                .getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.FAILED);
+    assertThat(result.getOutput()).contains(FAILURE_SOURCE_COMPILATION_ERROR);
+    assertThat(Files.isRegularFile(projectDir.resolve("build/errorprone/plugin-path.jar")))
+        .isTrue();
+  }
+
+  @Test
+  void mergePluginPathDoesNotShadowEntriesWithVersionedOnes() throws Exception {
+    // given
+    Files.writeString(
+        projectDir.resolve("gradle.properties"),
+        ErrorPronePlugin.MERGE_PLUGIN_PATH_PROPERTY + "=true\n",
+        StandardOpenOption.APPEND);
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        dependencies {
+            errorprone(files("first.jar", "second.jar", "third.jar"))
+        }
+        """,
+        StandardOpenOption.APPEND);
+    writeJar(
+        projectDir.resolve("first.jar"),
+        false,
+        Map.of(
+            "test/Shadowed.txt", "first",
+            // Ignored in a JAR that isn't a Multi-Release JAR
+            "META-INF/versions/9/test/Ignored.txt", "first"));
+    writeJar(
+        projectDir.resolve("second.jar"),
+        true,
+        Map.of(
+            "test/Shadowed.txt", "second",
+            "META-INF/versions/9/test/Shadowed.txt", "second",
+            "test/Versioned.txt", "second",
+            "META-INF/versions/9/test/Versioned.txt", "second-9",
+            // The base entry comes from a later JAR
+            "META-INF/versions/9/test/Later.txt", "second-9",
+            // No JAR has the base entry
+            "META-INF/versions/9/test/VersionedOnly.txt", "second-9"));
+    writeJar(projectDir.resolve("third.jar"), false, Map.of("test/Later.txt", "third"));
+
+    // when
+    var result = buildWithArgs(ErrorPronePlugin.MERGE_PLUGIN_PATH_TASK_NAME);
+
+    // then
+    assertThat(
+            requireNonNull(result.task(":" + ErrorPronePlugin.MERGE_PLUGIN_PATH_TASK_NAME))
+                .getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    try (var mergedJar =
+        new JarFile(
+            projectDir.resolve("build/errorprone/plugin-path.jar").toFile(),
+            true,
+            ZipFile.OPEN_READ,
+            Runtime.version())) {
+      assertThat(mergedJar.isMultiRelease()).isTrue();
+      assertThat(readEntry(mergedJar, "test/Shadowed.txt")).isEqualTo("first");
+      assertThat(readEntry(mergedJar, "test/Versioned.txt")).isEqualTo("second-9");
+      assertThat(readEntry(mergedJar, "test/Later.txt")).isEqualTo("third");
+      assertThat(mergedJar.getEntry("META-INF/versions/9/test/Later.txt")).isNull();
+      assertThat(readEntry(mergedJar, "test/VersionedOnly.txt")).isEqualTo("second-9");
+      assertThat(mergedJar.getEntry("META-INF/versions/9/test/Ignored.txt")).isNull();
+    }
+  }
+
+  private static void writeJar(Path path, boolean multiRelease, Map<String, String> entries)
+      throws IOException {
+    var manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    if (multiRelease) {
+      manifest.getMainAttributes().put(Attributes.Name.MULTI_RELEASE, "true");
+    }
+    try (var out = new JarOutputStream(Files.newOutputStream(path), manifest)) {
+      for (var entry : new TreeMap<>(entries).entrySet()) {
+        out.putNextEntry(new JarEntry(entry.getKey()));
+        out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+      }
+    }
+  }
+
+  private static String readEntry(JarFile jar, String name) throws IOException {
+    try (var in = jar.getInputStream(requireNonNull(jar.getJarEntry(name)))) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
   }
 
   // Inspired by the tests added in Error Prone's https://github.com/google/error-prone/pull/4618
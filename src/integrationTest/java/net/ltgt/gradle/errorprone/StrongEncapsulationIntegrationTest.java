@@ -119,6 +119,94 @@ public class StrongEncapsulationIntegrationTest extends BasePluginIntegrationTes
         .isEqualTo(TaskOutcome.UP_TO_DATE);
   }
 
+  @Test
+  void canExportJdkCompilerInsteadOfForking() throws Exception {
+    assume()
+        .withMessage("isJava16Compatible")
+        .that(testJavaVersion)
+        .isAtLeast(JavaVersion.VERSION_16);
+
+    // given
+    Files.writeString(
+        projectDir.resolve("gradle.properties"),
+        ErrorPronePlugin.EXPORT_JDK_COMPILER_PROPERTY + "=true\n",
+        StandardOpenOption.APPEND);
+
+    // when
+    var result = buildWithArgs("compileJava");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(result.getOutput()).contains(NOT_FORKED);
+  }
+
+  @Test
+  void canUseCompilerDaemonInsteadOfCustomJavaHome() throws Exception {
+    // given
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        compileJava.options.isFork = true
+        compileJava.options.forkOptions.javaHome = file(System.getProperty("java.home"))
+        compileJava.options.errorprone.preferCompilerDaemon = true
+        displayCompileJavaOptions.configure {
+            doFirst {
+                println("Java home: ${compileJava.options.forkOptions.javaHome}")
+            }
+        }
+        """,
+        StandardOpenOption.APPEND);
+
+    // when
+    var result = buildWithArgs("--info", "compileJava");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(result.getOutput()).contains("Using a compiler daemon with ");
+    assertThat(result.getOutput()).contains("Java home: null");
+    assertThat(result.getOutput()).contains(JVM_ARGS_STRONG_ENCAPSULATION);
+    assertThat(result.getOutput()).doesNotContain("still runs javac from the command line");
+  }
+
+  @Test
+  void keepsTwoTokenJvmArgsWhenSharingCompilerDaemon() throws Exception {
+    // given
+    Files.writeString(
+        projectDir.resolve("gradle.properties"),
+        ErrorPronePlugin.SHARE_COMPILER_DAEMON_PROPERTY + "=true\n",
+        StandardOpenOption.APPEND);
+    Files.writeString(
+        getBuildFile(),
+        // language=kts
+        """
+
+        compileJava.options.isFork = true
+        compileJava.options.forkOptions.javaHome = file(System.getProperty("java.home"))
+        compileJava.options.errorprone.preferCompilerDaemon = true
+        compileJava.options.forkOptions.jvmArgs!!.addAll(
+            listOf("-Xss4m", "--add-exports", "java.base/sun.nio.ch=ALL-UNNAMED", "-Dfoo=bar", "-Xss8m")
+        )
+        """,
+        StandardOpenOption.APPEND);
+
+    // when
+    var result = buildWithArgs("--info", "compileJava");
+
+    // then
+    assertThat(requireNonNull(result.task(":compileJava")).getOutcome())
+        .isEqualTo(TaskOutcome.SUCCESS);
+    assertThat(result.getOutput()).contains("Using a compiler daemon with ");
+    // The value stays right after its option, and the last -Xss still wins
+    assertThat(result.getOutput())
+        .contains(jvmArg("--add-exports") + jvmArg("java.base/sun.nio.ch=ALL-UNNAMED"));
+    assertThat(result.getOutput()).contains(jvmArg("-Xss4m") + jvmArg("-Xss8m"));
+    assertThat(result.getOutput()).contains(jvmArg("-XshowSettings"));
+  }
+
   @Test
   void doesNotConfigureForkingIfErrorProneIsDisabled() throws Exception {
     assume()
@@ -0,0 +1,82 @@
+package net.ltgt.gradle.errorprone;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.gradle.api.Project;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.tasks.SourceSetContainer;
+import org.gradle.api.tasks.compile.JavaCompile;
+import org.gradle.process.CommandLineArgumentProvider;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.jspecify.annotations.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the cost of computing the JVM arguments of the compilation tasks of a project with the
+ * plugin applied, which needs the compiler version of each task, resolved from its toolchain.
+ *
+ * <p>Each iteration runs against a newly configured project, so the compiler versions have never
+ * been read before. {@link #readOnce} reads them once per task, {@link #readThreeTimes} as many
+ * times as during task execution (as an input, for JVM arguments, and to decide whether to fork).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompilerVersionBenchmark {
+  @Param({"100", "1000"})
+  public int tasks;
+
+  private @Nullable Project project;
+
+  /** Configures a new project with one source set, and its compilation task, per task. */
+  @Setup(Level.Iteration)
+  public void setup() throws IOException {
+    Project project =
+        ProjectBuilder.builder()
+            .withProjectDir(Files.createTempDirectory("compiler-version-benchmark").toFile())
+            .build();
+    this.project = project;
+    project.getPluginManager().apply(JavaPlugin.class);
+    project.getPluginManager().apply(ErrorPronePlugin.class);
+    SourceSetContainer sourceSets = project.getExtensions().getByType(SourceSetContainer.class);
+    for (int i = 0; i < tasks; i++) {
+      sourceSets.create("set" + i);
+    }
+  }
+
+  @Benchmark
+  public int readOnce() {
+    return readJvmArguments(1);
+  }
+
+  @Benchmark
+  public int readThreeTimes() {
+    return readJvmArguments(3);
+  }
+
+  private int readJvmArguments(int reads) {
+    int count = 0;
+    for (JavaCompile task : requireNonNull(project).getTasks().withType(JavaCompile.class)) {
+      for (int i = 0; i < reads; i++) {
+        for (CommandLineArgumentProvider provider :
+            task.getOptions().getForkOptions().getJvmArgumentProviders()) {
+          for (String unused : provider.asArguments()) {
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,114 @@
+package net.ltgt.gradle.errorprone;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import org.jspecify.annotations.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares the cost of loading entries (as for classes and {@code ServiceLoader} registrations)
+ * through a new class loader, between a plugin path made of many JARs and the same entries merged
+ * into a single JAR, as done by {@link ErrorProneMergePluginPath}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MergedPluginPathBenchmark {
+  // Roughly the number of JARs in Error Prone's plugin path
+  private static final int JARS = 60;
+  private static final int ENTRIES_PER_JAR = 200;
+  private static final String SERVICE = "META-INF/services/com.example.Service";
+
+  private final List<URL> jars = new ArrayList<>(JARS);
+  private final List<String> names = new ArrayList<>(JARS * ENTRIES_PER_JAR);
+  private @Nullable URL mergedJar;
+  private @Nullable Path directory;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    Path directory = Files.createTempDirectory("merged-plugin-path-benchmark");
+    this.directory = directory;
+    Path mergedJar = directory.resolve("merged.jar");
+    try (JarOutputStream merged = new JarOutputStream(Files.newOutputStream(mergedJar))) {
+      for (int i = 0; i < JARS; i++) {
+        Path jar = directory.resolve("jar" + i + ".jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+          for (int j = 0; j < ENTRIES_PER_JAR; j++) {
+            String name = "com/example/jar" + i + "/Class" + j + ".class";
+            names.add(name);
+            writeEntry(out, name);
+            writeEntry(merged, name);
+          }
+          writeEntry(out, SERVICE);
+        }
+        jars.add(jar.toUri().toURL());
+      }
+      writeEntry(merged, SERVICE);
+    }
+    this.mergedJar = mergedJar.toUri().toURL();
+    // Classes aren't loaded in the order of the JARs
+    Collections.shuffle(names, new Random(42));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(requireNonNull(directory))) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Benchmark
+  public int separateJars() throws IOException {
+    return loadAll(jars.toArray(new URL[0]));
+  }
+
+  @Benchmark
+  public int mergedJar() throws IOException {
+    return loadAll(new URL[] {requireNonNull(mergedJar)});
+  }
+
+  private int loadAll(URL[] classpath) throws IOException {
+    int count = 0;
+    try (URLClassLoader loader = new URLClassLoader(classpath, null)) {
+      count += Collections.list(loader.getResources(SERVICE)).size();
+      for (String name : names) {
+        try (InputStream in = requireNonNull(loader.getResourceAsStream(name))) {
+          count += in.read();
+        }
+      }
+    }
+    return count;
+  }
+
+  private static void writeEntry(JarOutputStream out, String name) throws IOException {
+    out.putNextEntry(new ZipEntry(name));
+    out.write(name.getBytes(StandardCharsets.UTF_8));
+    out.closeEntry();
+  }
+}
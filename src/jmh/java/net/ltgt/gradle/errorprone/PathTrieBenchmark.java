@@ -0,0 +1,92 @@
+package net.ltgt.gradle.errorprone;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the cost of matching source file paths against excluded directories, between a plain
+ * alternation and the regular expression built by {@link PathTrie}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PathTrieBenchmark {
+  private static final String PROJECT_DIR = "/home/user/workspace/monorepo/project";
+  private static final int DIRECTORIES = 300;
+  private static final int FILES = 1000;
+
+  private final Pattern alternation =
+      Pattern.compile(
+          directories().stream()
+              .map(directory -> Pattern.quote(PROJECT_DIR + "/" + directory) + "/.*")
+              .collect(Collectors.joining("|", "^(?:", ")")));
+
+  private final Pattern trie = Pattern.compile("^" + trieRegex());
+
+  private final List<String> paths = paths();
+
+  private static List<String> directories() {
+    List<String> directories = new ArrayList<>(DIRECTORIES);
+    for (int i = 0; i < DIRECTORIES; i++) {
+      directories.add("src/main/java/com/example/module" + i + "/legacy");
+    }
+    return directories;
+  }
+
+  private static String trieRegex() {
+    PathTrie trie = new PathTrie();
+    for (String directory : directories()) {
+      trie.add(PROJECT_DIR, "/" + directory + "/**");
+    }
+    String regex = trie.toRegex();
+    if (regex == null) {
+      throw new AssertionError();
+    }
+    return regex;
+  }
+
+  private static List<String> paths() {
+    List<String> paths = new ArrayList<>(FILES);
+    for (int i = 0; i < FILES; i++) {
+      // Half the modules have an excluded directory, and half the files are in such directories
+      paths.add(
+          PROJECT_DIR
+              + "/src/main/java/com/example/module"
+              + (i % (2 * DIRECTORIES))
+              + (i % 2 == 0 ? "/legacy/" : "/api/")
+              + "Foo"
+              + i
+              + ".java");
+    }
+    return paths;
+  }
+
+  @Benchmark
+  public int alternation() {
+    return countMatches(alternation);
+  }
+
+  @Benchmark
+  public int trie() {
+    return countMatches(trie);
+  }
+
+  private int countMatches(Pattern pattern) {
+    int matches = 0;
+    for (String path : paths) {
+      if (pattern.matcher(path).matches()) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+}
@@ -0,0 +1,611 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.inject.Inject;
+import org.gradle.api.JavaVersion;
+import org.gradle.api.Task;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.file.RelativePath;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.CompileClasspath;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.api.tasks.SourceTask;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.work.InputChanges;
+import org.gradle.work.NormalizeLineEndings;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Runs Error Prone on Java sources, without generating any class file.
+ *
+ * <p>Such a task is registered for each source set, and runs whenever {@link
+ * ErrorProneOptions#getAnalyzeSeparately() analyzeSeparately} is enabled on the source set's
+ * compilation task, reusing that task's {@link ErrorProneOptions}.
+ *
+ * <p>The results of the analysis are cached independently of the compilation, whose cache key then
+ * doesn't depend on the Error Prone configuration. They're logged by an {@link ErrorProneReport}
+ * task that finalizes this one, so they're reported even when this task is up-to-date.
+ */
+@CacheableTask
+public abstract class ErrorProneAnalyze extends SourceTask {
+  static final String FAILURE_MESSAGE =
+      "Error Prone analysis failed; see the compiler error output for details.";
+
+  private @Nullable ErrorProneOptions errorproneOptions;
+  private @Nullable Provider<ErrorProneMetaspaceService> metaspaceService;
+
+  @SuppressWarnings("this-escape")
+  public ErrorProneAnalyze() {
+    onlyIf(new IsEnabled());
+  }
+
+  @Override
+  @InputFiles
+  @SkipWhenEmpty
+  @IgnoreEmptyDirectories
+  @NormalizeLineEndings
+  @PathSensitive(PathSensitivity.RELATIVE)
+  public FileTree getSource() {
+    return super.getSource();
+  }
+
+  /** The Error Prone options, generally those of the source set's compilation task. */
+  @Nested
+  public @Nullable ErrorProneOptions getErrorproneOptions() {
+    return errorproneOptions;
+  }
+
+  public void setErrorproneOptions(ErrorProneOptions errorproneOptions) {
+    this.errorproneOptions = errorproneOptions;
+  }
+
+  void setMetaspaceService(Provider<ErrorProneMetaspaceService> metaspaceService) {
+    this.metaspaceService = metaspaceService;
+  }
+
+  /** The classpath to analyze the sources against, including the compiled sources. */
+  @CompileClasspath
+  public abstract ConfigurableFileCollection getClasspath();
+
+  /** The classpath containing Error Prone and its plugins; passed as {@code -processorpath}. */
+  @Classpath
+  public abstract ConfigurableFileCollection getErrorproneClasspath();
+
+  /** The Java launcher used to run {@code javac} with Error Prone. */
+  @Nested
+  @Optional
+  public abstract Property<JavaLauncher> getJavaLauncher();
+
+  @Input
+  @Optional
+  public abstract Property<Integer> getRelease();
+
+  @Input
+  @Optional
+  public abstract Property<String> getSourceCompatibility();
+
+  @Input
+  @Optional
+  public abstract Property<String> getTargetCompatibility();
+
+  @Input
+  @Optional
+  public abstract Property<String> getEncoding();
+
+  /**
+   * Additional arguments passed to {@code javac}.
+   *
+   * <p>Defaults to those of the compilation task, without the ones for annotation processing,
+   * {@code -Xlint}, and {@code -Werror}.
+   */
+  @Input
+  public abstract ListProperty<String> getCompilerArgs();
+
+  /** The maximum heap size for the process running {@code javac}. */
+  @Internal
+  public abstract Property<String> getMaxHeapSize();
+
+  /**
+   * The directory where findings are stored for each source file, so only changed files are
+   * analyzed again.
+   */
+  @OutputDirectory
+  public abstract DirectoryProperty getFindingsDirectory();
+
+  /**
+   * The file the diagnostics will be written to, sorted by source file and position, to be logged
+   * by an {@link ErrorProneReport} task.
+   *
+   * <p>Paths to source files inside the project directory are stored relative to it, so the file
+   * can be reused from the build cache by a project in another directory.
+   */
+  @OutputFile
+  public abstract RegularFileProperty getDiagnosticsFile();
+
+  /**
+   * The file the diagnostics will be written to as text, sorted by source file and position, with
+   * paths relative to the project directory.
+   */
+  @OutputFile
+  public abstract RegularFileProperty getReportFile();
+
+  @Inject
+  protected abstract WorkerExecutor getWorkerExecutor();
+
+  @Inject
+  protected abstract FileSystemOperations getFileSystemOperations();
+
+  @Inject
+  protected abstract ProjectLayout getProjectLayout();
+
+  @TaskAction
+  void analyze(InputChanges inputChanges) {
+    ErrorProneOptions errorproneOptions = getErrorproneOptions();
+    if (errorproneOptions == null) {
+      throw new IllegalStateException("errorproneOptions must be set");
+    }
+    JavaLauncher javaLauncher = getJavaLauncher().getOrNull();
+    boolean canRunErrorProne =
+        javaLauncher == null
+            ? JavaVersion.current().isCompatibleWith(JavaVersion.VERSION_11)
+            : javaLauncher.getMetadata().getLanguageVersion().canCompileOrRun(11);
+    if (!canRunErrorProne) {
+      throw new UnsupportedOperationException(ErrorPronePlugin.TOO_OLD_TOOLCHAIN_ERROR_MESSAGE);
+    }
+
+    // Don't report stale diagnostics if the analysis fails
+    getFileSystemOperations().delete(spec -> spec.delete(getDiagnosticsFile()));
+
+    List<String> baseArguments = errorproneOptions.toArgumentList(Collections.emptyMap());
+    // Including the checks for missing libraries, so they don't prevent running checks separately
+    Map<String, CheckSeverity> checks = errorproneOptions.getAllChecks();
+    List<File> fingerprintedFiles = new ArrayList<>();
+    if (javaLauncher != null) {
+      fingerprintedFiles.add(javaLauncher.getExecutablePath().getAsFile());
+    }
+    fingerprintedFiles.addAll(getClasspath().getFiles());
+    fingerprintedFiles.addAll(getErrorproneClasspath().getFiles());
+    fingerprintedFiles.addAll(errorproneOptions.getArgumentFiles().getFiles());
+    ErrorProneFindings.Configuration configuration =
+        new ErrorProneFindings.Configuration(
+            ErrorProneFindings.fingerprint(
+                computeCompilerOptions(String.join(" ", baseArguments)),
+                fingerprintedFiles,
+                getProjectLayout().getProjectDirectory().getAsFile()),
+            checks);
+
+    // Findings of previous executions can only be reused if only sources have changed (and not the
+    // options, Error Prone classpath, or the ABI of the classpath), or if only the severity of some
+    // checks changed, in which case only those checks need to run again.
+    File findingsDirectory = getFindingsDirectory().get().getAsFile();
+    findingsDirectory.mkdirs();
+    ErrorProneFindings findings = new ErrorProneFindings(findingsDirectory);
+    Map<String, CheckSeverity> changedChecks =
+        inputChanges.isIncremental()
+            ? Collections.emptyMap()
+            : configuration.changedChecks(findings.getConfiguration());
+    if (changedChecks != null
+        && !changedChecks.isEmpty()
+        && !canRunChecksSeparately(baseArguments)) {
+      changedChecks = null;
+    }
+    if (changedChecks == null) {
+      getFileSystemOperations().delete(spec -> spec.delete(findingsDirectory));
+      findingsDirectory.mkdirs();
+      changedChecks = Collections.emptyMap();
+    }
+
+    SortedSet<ErrorProneDiagnostic> diagnostics = new TreeSet<>();
+    Set<String> keys = new HashSet<>();
+    Map<String, String> keysToAnalyze = new HashMap<>();
+    SortedMap<String, List<File>> packagesToAnalyze = new TreeMap<>();
+    Map<String, String> keysToRecheck = new HashMap<>();
+    Map<String, List<ErrorProneDiagnostic>> findingsToRecheck = new HashMap<>();
+    SortedMap<String, List<File>> packagesToRecheck = new TreeMap<>();
+    Map<String, CheckSeverity> checksToRecheck = changedChecks;
+    // Excluded files would be ignored anyway, don't even parse them.
+    // Compare canonical paths, as changed files computed by git have symbolic links resolved.
+    Set<String> changedFiles = new HashSet<>();
+    for (String changedFile : errorproneOptions.getChangedFiles().get()) {
+      changedFiles.add(GitChangedFiles.canonicalPath(new File(changedFile)));
+    }
+    List<String> generatedSourceDirectories = new ArrayList<>();
+    if (errorproneOptions.getExcludeGeneratedSources().getOrElse(false)) {
+      for (File directory : errorproneOptions.getGeneratedSourceDirectories().getFiles()) {
+        generatedSourceDirectories.add(directory.getAbsolutePath() + File.separator);
+      }
+    }
+    getSource()
+        .visit(
+            details -> {
+              if (details.isDirectory()) {
+                return;
+              }
+              String path = details.getFile().getAbsolutePath();
+              if ((!changedFiles.isEmpty()
+                      && !changedFiles.contains(GitChangedFiles.canonicalPath(details.getFile())))
+                  || generatedSourceDirectories.stream().anyMatch(path::startsWith)) {
+                return;
+              }
+              String key =
+                  ErrorProneFindings.key(
+                      details.getRelativePath().getPathString(), details.getFile());
+              keys.add(key);
+              List<ErrorProneDiagnostic> previousFindings = findings.get(key);
+              if (previousFindings != null && checksToRecheck.isEmpty()) {
+                diagnostics.addAll(previousFindings);
+                return;
+              }
+              if (previousFindings != null) {
+                keysToRecheck.put(details.getFile().getAbsolutePath(), key);
+                findingsToRecheck.put(key, previousFindings);
+                addToPackage(packagesToRecheck, details.getRelativePath(), details.getFile());
+              } else {
+                keysToAnalyze.put(details.getFile().getAbsolutePath(), key);
+                addToPackage(packagesToAnalyze, details.getRelativePath(), details.getFile());
+              }
+            });
+
+    int shardCount = errorproneOptions.getAnalysisShards().getOrElse(1);
+    boolean inProcess =
+        errorproneOptions.getAnalyzeInProcess().getOrElse(false)
+            && canAnalyzeInProcess(javaLauncher);
+    if (inProcess && metaspaceService != null) {
+      // Starts tracking the metaspace growth, reported at the end of the build
+      metaspaceService.get();
+    }
+    WorkQueue workQueue =
+        inProcess
+            ? getWorkerExecutor().noIsolation()
+            : createWorkQueue(getWorkerExecutor(), javaLauncher, getMaxHeapSize().getOrNull());
+    List<File> analysisFiles =
+        submit(
+            workQueue,
+            "diagnostics",
+            computeArguments(errorproneOptions.toString()),
+            computeShards(packagesToAnalyze, shardCount));
+    // Checks that are turned off need not run; their findings will just be dropped.
+    Map<String, CheckSeverity> checksToRun = new TreeMap<>(changedChecks);
+    checksToRun.values().removeIf(severity -> severity == CheckSeverity.OFF);
+    if (!changedChecks.isEmpty()) {
+      getLogger()
+          .info(
+              "Only running checks {} on {} previously analyzed source files",
+              checksToRun.keySet(),
+              keysToRecheck.size());
+    }
+    List<File> recheckFiles =
+        checksToRun.isEmpty()
+            ? Collections.emptyList()
+            : submit(
+                workQueue,
+                "recheck",
+                computeArguments(
+                    "-XepDisableAllChecks " + errorproneOptions.toString(checksToRun)),
+                computeShards(packagesToRecheck, shardCount));
+    workQueue.await();
+
+    List<ErrorProneDiagnostic> globalFindings = new ArrayList<>();
+    if (packagesToAnalyze.isEmpty()) {
+      for (ErrorProneDiagnostic diagnostic : findings.getGlobal()) {
+        if (!changedChecks.containsKey(diagnostic.getCheck())) {
+          globalFindings.add(diagnostic);
+        }
+      }
+    }
+    // Findings are stored with paths relative to the project directory, to be relocatable
+    File projectDir = getProjectLayout().getProjectDirectory().getAsFile();
+    Map<String, List<ErrorProneDiagnostic>> newFindings = new HashMap<>();
+    keysToAnalyze.values().forEach(key -> newFindings.put(key, new ArrayList<>()));
+    for (ErrorProneDiagnostic diagnostic : readDiagnostics(analysisFiles)) {
+      addFinding(newFindings, globalFindings, keysToAnalyze, diagnostic, projectDir);
+    }
+    for (Map.Entry<String, List<ErrorProneDiagnostic>> entry : findingsToRecheck.entrySet()) {
+      List<ErrorProneDiagnostic> fileFindings = new ArrayList<>();
+      for (ErrorProneDiagnostic diagnostic : entry.getValue()) {
+        if (!changedChecks.containsKey(diagnostic.getCheck())) {
+          fileFindings.add(diagnostic);
+        }
+      }
+      newFindings.put(entry.getKey(), fileFindings);
+    }
+    for (ErrorProneDiagnostic diagnostic : readDiagnostics(recheckFiles)) {
+      // Other diagnostics (e.g. from javac itself) are already part of the previous findings
+      if (checksToRun.containsKey(diagnostic.getCheck())) {
+        addFinding(newFindings, globalFindings, keysToRecheck, diagnostic, projectDir);
+      }
+    }
+    newFindings.forEach(
+        (key, fileFindings) -> {
+          findings.put(key, fileFindings);
+          diagnostics.addAll(fileFindings);
+        });
+    // Rechecked files could have reported the same global findings as the analyzed ones
+    globalFindings = new ArrayList<>(new TreeSet<>(globalFindings));
+    if (!newFindings.isEmpty()) {
+      findings.putGlobal(globalFindings);
+    }
+    diagnostics.addAll(globalFindings);
+    findings.retainOnly(keys);
+    findings.putConfiguration(configuration);
+
+    writeReport(diagnostics);
+  }
+
+  /**
+   * Whether checks can be run in isolation, with {@code -XepDisableAllChecks} and only the given
+   * checks enabled, and produce the same findings as when run along with all the other checks.
+   *
+   * <p>This isn't the case when checks are configured outside of {@link
+   * ErrorProneOptions#getChecks() checks} (e.g. through {@link
+   * ErrorProneOptions#getErrorproneArgs() errorproneArgs} or argument files), or when disabled
+   * checks are turned into warnings.
+   */
+  private static boolean canRunChecksSeparately(List<String> baseArguments) {
+    for (String argument : baseArguments) {
+      if (argument.startsWith("-Xep:")
+          || argument.startsWith("@")
+          || argument.equals("-XepAllDisabledChecksAsWarnings")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void addToPackage(
+      SortedMap<String, List<File>> packages, RelativePath relativePath, File file) {
+    RelativePath parent = relativePath.getParent();
+    packages
+        .computeIfAbsent(parent == null ? "" : parent.getPathString(), unused -> new ArrayList<>())
+        .add(file);
+  }
+
+  private static void addFinding(
+      Map<String, List<ErrorProneDiagnostic>> findings,
+      List<ErrorProneDiagnostic> globalFindings,
+      Map<String, String> keys,
+      ErrorProneDiagnostic diagnostic,
+      File projectDir) {
+    String source = diagnostic.getSource();
+    String key = source == null ? null : keys.get(new File(source).getAbsolutePath());
+    if (key == null) {
+      globalFindings.add(diagnostic.relativize(projectDir));
+    } else {
+      findings.get(key).add(diagnostic.relativize(projectDir));
+    }
+  }
+
+  /**
+   * Whether the analysis can run in the Gradle daemon: it needs to run the same Java version as the
+   * toolchain, and to be able to run Error Prone.
+   */
+  private boolean canAnalyzeInProcess(@Nullable JavaLauncher javaLauncher) {
+    if (javaLauncher != null
+        && !JavaVersion.toVersion(javaLauncher.getMetadata().getLanguageVersion().asInt())
+            .equals(JavaVersion.current())) {
+      getLogger()
+          .info(
+              "Analyzing in worker processes as the toolchain (Java {}) doesn't match the Gradle"
+                  + " daemon (Java {})",
+              javaLauncher.getMetadata().getLanguageVersion(),
+              JavaVersion.current().getMajorVersion());
+      return false;
+    }
+    if (ErrorPronePlugin.StrongEncapsulationHelperJava.currentJvmNeedsForking(false)) {
+      getLogger()
+          .info(
+              "Analyzing in worker processes as the Gradle daemon hasn't been given the JVM"
+                  + " arguments needed to run Error Prone");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Creates a work queue running in worker processes; queues created with the same arguments can
+   * share worker processes.
+   */
+  static WorkQueue createWorkQueue(
+      WorkerExecutor workerExecutor,
+      @Nullable JavaLauncher javaLauncher,
+      @Nullable String maxHeapSize) {
+    return workerExecutor.processIsolation(
+        spec ->
+            spec.forkOptions(
+                forkOptions -> {
+                  if (javaLauncher != null) {
+                    forkOptions.setExecutable(javaLauncher.getExecutablePath().getAsFile());
+                  }
+                  forkOptions.jvmArgs(ErrorPronePlugin.JVM_ARGS_STRONG_ENCAPSULATION);
+                  if (maxHeapSize != null) {
+                    forkOptions.setMaxHeapSize(maxHeapSize);
+                  }
+                }));
+  }
+
+  /** Submits one work item per shard, returning the files their diagnostics will be written to. */
+  private List<File> submit(
+      WorkQueue workQueue,
+      String name,
+      List<String> arguments,
+      List<List<File>> shards) {
+    List<File> diagnosticsFiles = new ArrayList<>(shards.size());
+    for (List<File> shard : shards) {
+      File diagnosticsFile =
+          new File(getTemporaryDir(), name + "-" + diagnosticsFiles.size() + ".bin");
+      diagnosticsFiles.add(diagnosticsFile);
+      workQueue.submit(
+          ErrorProneAnalyzeAction.class,
+          parameters -> {
+            parameters.getArguments().set(arguments);
+            parameters.getSourceFiles().from(shard);
+            parameters.getDiagnosticsFile().set(diagnosticsFile);
+          });
+    }
+    return diagnosticsFiles;
+  }
+
+  private static List<ErrorProneDiagnostic> readDiagnostics(List<File> diagnosticsFiles) {
+    List<ErrorProneDiagnostic> diagnostics = new ArrayList<>();
+    for (File diagnosticsFile : diagnosticsFiles) {
+      diagnostics.addAll(ErrorProneDiagnostic.read(diagnosticsFile));
+    }
+    return diagnostics;
+  }
+
+  /**
+   * Splits the sources into shards, keeping packages together and balancing the number of files
+   * in each shard.
+   *
+   * <p>The result is deterministic for a given set of source files.
+   */
+  private static List<List<File>> computeShards(
+      SortedMap<String, List<File>> packages, int requestedShards) {
+    if (packages.isEmpty()) {
+      return Collections.emptyList();
+    }
+    packages.values().forEach(files -> files.sort(Comparator.naturalOrder()));
+
+    int shardCount =
+        requestedShards > 0 ? requestedShards : Runtime.getRuntime().availableProcessors();
+    shardCount = Math.max(1, Math.min(shardCount, packages.size()));
+    List<List<File>> shards = new ArrayList<>(shardCount);
+    for (int i = 0; i < shardCount; i++) {
+      shards.add(new ArrayList<>());
+    }
+    // Largest packages first, each to the smallest shard so far.
+    // The sort is stable, so packages of the same size stay sorted by name.
+    List<List<File>> packagesBySize = new ArrayList<>(packages.values());
+    packagesBySize.sort(Comparator.comparingInt((List<File> files) -> files.size()).reversed());
+    for (List<File> files : packagesBySize) {
+      List<File> smallestShard = shards.get(0);
+      for (List<File> shard : shards) {
+        if (shard.size() < smallestShard.size()) {
+          smallestShard = shard;
+        }
+      }
+      smallestShard.addAll(files);
+    }
+    return shards;
+  }
+
+  private void writeReport(SortedSet<ErrorProneDiagnostic> diagnostics) {
+    ErrorProneDiagnostic.write(getDiagnosticsFile().get().getAsFile(), diagnostics);
+
+    StringBuilder report = new StringBuilder();
+    int errors = 0;
+    int warnings = 0;
+    for (ErrorProneDiagnostic diagnostic : diagnostics) {
+      if (diagnostic.isError()) {
+        errors++;
+      } else if (diagnostic.isWarning()) {
+        warnings++;
+      }
+      report.append(diagnostic.getRendered()).append(System.lineSeparator());
+    }
+    if (errors > 0) {
+      report.append(ErrorProneDiagnostic.count(errors, "error")).append(System.lineSeparator());
+    }
+    if (warnings > 0) {
+      report.append(ErrorProneDiagnostic.count(warnings, "warning")).append(System.lineSeparator());
+    }
+    try {
+      Files.write(
+          getReportFile().get().getAsFile().toPath(),
+          report.toString().getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private List<String> computeArguments(String errorproneArguments) {
+    List<String> arguments = new ArrayList<>();
+    arguments.add("-d");
+    arguments.add(getTemporaryDir().getAbsolutePath());
+    arguments.add("-classpath");
+    arguments.add(getClasspath().getAsPath());
+    arguments.add("-processorpath");
+    arguments.add(getErrorproneClasspath().getAsPath());
+    arguments.addAll(computeCompilerOptions(errorproneArguments));
+    return arguments;
+  }
+
+  /**
+   * Returns the arguments of the compiler, except for the output directory and classpaths, that
+   * are fingerprinted separately in {@linkplain ErrorProneFindings.Configuration configurations}.
+   */
+  private List<String> computeCompilerOptions(String errorproneArguments) {
+    List<String> arguments = new ArrayList<>();
+    // Annotation processors already ran as part of the compilation,
+    // and their generated sources are part of the analyzed sources.
+    arguments.add("-proc:none");
+    arguments.add("-implicit:none");
+    if (getRelease().isPresent()) {
+      arguments.add("--release");
+      arguments.add(String.valueOf(getRelease().get()));
+    } else {
+      addOption(arguments, "-source", getSourceCompatibility().getOrNull());
+      addOption(arguments, "-target", getTargetCompatibility().getOrNull());
+    }
+    addOption(arguments, "-encoding", getEncoding().getOrNull());
+    arguments.addAll(ErrorPronePlugin.compilerArguments(errorproneArguments));
+    arguments.add("--should-stop=ifNoError=FLOW");
+    arguments.addAll(getCompilerArgs().get());
+    return arguments;
+  }
+
+  private static void addOption(List<String> arguments, String name, @Nullable String value) {
+    if (value != null) {
+      arguments.add(name);
+      arguments.add(value);
+    }
+  }
+
+  private static class IsEnabled implements Spec<Task> {
+    @Override
+    public boolean isSatisfiedBy(Task task) {
+      ErrorProneOptions errorproneOptions = ((ErrorProneAnalyze) task).getErrorproneOptions();
+      return errorproneOptions != null
+          && ErrorPronePlugin.isEnabledInAnalyzeTask(errorproneOptions);
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.tools.DiagnosticListener;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Runs {@code javac} with Error Prone, in a worker process or the Gradle daemon, and collects the
+ * reported diagnostics.
+ *
+ * <p>Error Prone is loaded from a {@linkplain ErrorProneClassLoaders cached class loader}, so
+ * subsequent analyses in the same process don't have to load it again.
+ */
+abstract class ErrorProneAnalyzeAction implements WorkAction<ErrorProneAnalyzeAction.Parameters> {
+  interface Parameters extends WorkParameters {
+    ListProperty<String> getArguments();
+
+    ConfigurableFileCollection getSourceFiles();
+
+    RegularFileProperty getDiagnosticsFile();
+  }
+
+  @Override
+  public void execute() {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      throw new GradleException("Could not find a Java compiler; make sure to run with a JDK.");
+    }
+    List<ErrorProneDiagnostic> diagnostics = new ArrayList<>();
+    DiagnosticListener<JavaFileObject> diagnosticListener =
+        diagnostic -> diagnostics.add(ErrorProneDiagnostic.of(diagnostic));
+    StringWriter output = new StringWriter();
+    boolean success;
+    try (StandardJavaFileManager fileManager =
+            compiler.getStandardFileManager(null, null, null);
+        CachedProcessorClassLoaderFileManager cachingFileManager =
+            new CachedProcessorClassLoaderFileManager(
+                fileManager, compiler.getClass().getClassLoader())) {
+      success =
+          compiler
+              .getTask(
+                  output,
+                  cachingFileManager,
+                  diagnosticListener,
+                  getParameters().getArguments().get(),
+                  null,
+                  fileManager.getJavaFileObjectsFromFiles(
+                      getParameters().getSourceFiles().getFiles()))
+              .call();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    System.err.print(output);
+    ErrorProneDiagnostic.write(
+        getParameters().getDiagnosticsFile().get().getAsFile(), diagnostics);
+    if (!success && diagnostics.stream().noneMatch(ErrorProneDiagnostic::isError)) {
+      throw new GradleException(ErrorProneAnalyze.FAILURE_MESSAGE);
+    }
+  }
+
+  /**
+   * Loads the annotation processor path, that Error Prone is loaded from, with a {@linkplain
+   * ErrorProneClassLoaders cached class loader}, released when this file manager is closed.
+   */
+  static class CachedProcessorClassLoaderFileManager
+      extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    private final ClassLoader parent;
+    private ErrorProneClassLoaders.@Nullable Lease lease;
+
+    CachedProcessorClassLoaderFileManager(StandardJavaFileManager fileManager, ClassLoader parent) {
+      super(fileManager);
+      this.parent = parent;
+    }
+
+    @Override
+    public ClassLoader getClassLoader(Location location) {
+      Iterable<? extends File> path =
+          location == StandardLocation.ANNOTATION_PROCESSOR_PATH
+              ? fileManager.getLocation(location)
+              : null;
+      if (path == null) {
+        return super.getClassLoader(location);
+      }
+      if (lease == null) {
+        List<File> classpath = new ArrayList<>();
+        path.forEach(classpath::add);
+        lease = ErrorProneClassLoaders.acquire(classpath, parent);
+      }
+      return lease.getClassLoader();
+    }
+
+    /** Releases the class loader, leaving the standard file manager to be closed by its owner. */
+    @Override
+    public void close() {
+      if (lease != null) {
+        lease.close();
+      }
+    }
+  }
+}
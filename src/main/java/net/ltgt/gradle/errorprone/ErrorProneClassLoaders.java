@@ -0,0 +1,166 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+/**
+ * Caches the class loaders of the Error Prone classpath for analyses running in the Gradle daemon
+ * or in long-lived worker processes, keyed by a fingerprint of that classpath, so Error Prone's
+ * classes stay loaded (and JIT-compiled) from one analysis to the next.
+ *
+ * <p>At most {@link #MAX_CACHED_CLASS_LOADERS} class loaders are cached; the least recently used
+ * ones are evicted first, and closed once no analysis uses them anymore, so their classes can be
+ * unloaded. In the Gradle daemon, all of them are {@linkplain #closeAll() closed} at the end of the
+ * build.
+ *
+ * <p>Closing a class loader only makes it unloadable: values left by Error Prone in thread-locals
+ * of long-lived threads can still keep it reachable. They're not cleared, as there's no supported
+ * API to do so.
+ */
+final class ErrorProneClassLoaders {
+  static final int MAX_CACHED_CLASS_LOADERS = 4;
+
+  // In access order, so the least recently used class loader comes first
+  private static final Map<String, CachedClassLoader> CLASS_LOADERS =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  private static int evictions;
+
+  /**
+   * Returns a class loader for the given classpath, sharing the classes of any previous one for the
+   * same classpath and parent; it has to be {@linkplain Lease#close() released} once the
+   * compilation is done.
+   */
+  static Lease acquire(List<File> classpath, ClassLoader parent) {
+    String key =
+        ErrorProneFindings.fingerprintByPath(classpath)
+            + "@"
+            + System.identityHashCode(parent);
+    synchronized (CLASS_LOADERS) {
+      CachedClassLoader cached = CLASS_LOADERS.get(key);
+      if (cached == null) {
+        cached = new CachedClassLoader(new URLClassLoader(toUrls(classpath), parent));
+        CLASS_LOADERS.put(key, cached);
+        Iterator<CachedClassLoader> it = CLASS_LOADERS.values().iterator();
+        while (CLASS_LOADERS.size() > MAX_CACHED_CLASS_LOADERS && it.hasNext()) {
+          CachedClassLoader eldest = it.next();
+          if (eldest != cached) {
+            it.remove();
+            evictions++;
+            eldest.evicted = true;
+            eldest.closeIfUnused();
+          }
+        }
+      }
+      cached.users++;
+      return new Lease(cached);
+    }
+  }
+
+  /**
+   * Evicts all the cached class loaders, closing those that no analysis uses anymore; the others
+   * are closed when their last analysis {@linkplain Lease#close() releases} them.
+   */
+  static void closeAll() {
+    synchronized (CLASS_LOADERS) {
+      for (CachedClassLoader cached : CLASS_LOADERS.values()) {
+        evictions++;
+        cached.evicted = true;
+        cached.closeIfUnused();
+      }
+      CLASS_LOADERS.clear();
+    }
+  }
+
+  /** Returns the number of cached class loaders. */
+  static int size() {
+    synchronized (CLASS_LOADERS) {
+      return CLASS_LOADERS.size();
+    }
+  }
+
+  /** Returns the number of class loaders evicted since the class was loaded. */
+  static int evictions() {
+    synchronized (CLASS_LOADERS) {
+      return evictions;
+    }
+  }
+
+  private static URL[] toUrls(List<File> classpath) {
+    URL[] urls = new URL[classpath.size()];
+    for (int i = 0; i < urls.length; i++) {
+      try {
+        urls[i] = classpath.get(i).toURI().toURL();
+      } catch (MalformedURLException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+    return urls;
+  }
+
+  /** A class loader used by a compilation. */
+  static final class Lease implements AutoCloseable {
+    private final CachedClassLoader cached;
+    private boolean released;
+
+    private Lease(CachedClassLoader cached) {
+      this.cached = cached;
+    }
+
+    /**
+     * Returns the class loader.
+     *
+     * <p>It isn't {@link java.io.Closeable} as {@code javac} closes the processor class loader at
+     * the end of the compilation.
+     */
+    ClassLoader getClassLoader() {
+      return new ClassLoader(cached.classLoader) {};
+    }
+
+    /** Releases the class loader, closing it if it has been evicted in the mean time. */
+    @Override
+    public void close() {
+      if (released) {
+        return;
+      }
+      released = true;
+      synchronized (CLASS_LOADERS) {
+        cached.users--;
+        cached.closeIfUnused();
+      }
+    }
+  }
+
+  private static final class CachedClassLoader {
+    final URLClassLoader classLoader;
+    // Guarded by CLASS_LOADERS
+    int users;
+    boolean evicted;
+
+    CachedClassLoader(URLClassLoader classLoader) {
+      this.classLoader = classLoader;
+    }
+
+    void closeIfUnused() {
+      if (!evicted || users > 0) {
+        return;
+      }
+      ResourceBundle.clearCache(classLoader);
+      try {
+        classLoader.close();
+      } catch (IOException e) {
+        // The class loader won't be used anymore, and will eventually be garbage collected
+      }
+    }
+  }
+
+  private ErrorProneClassLoaders() {}
+}
@@ -0,0 +1,55 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.result.ResolutionResult;
+import org.gradle.api.artifacts.result.ResolvedComponentResult;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Shares the resolved {@link ErrorProneDefaults#getSharedDependencies() sharedDependencies} across
+ * all projects of the build, so their artifacts are only resolved (and transformed) once for each
+ * distinct dependency graph.
+ *
+ * <p>Each project resolves the dependency graph of its own (detached) configuration, with its own
+ * repositories, constraints, substitutions and resolution strategy. Only the artifacts are shared,
+ * between projects whose graphs resolved to the same components, so no project ever sees the
+ * result of a resolution that could have been different in its own context.
+ */
+abstract class ErrorProneClasspathService
+    implements BuildService<BuildServiceParameters.None> {
+  static final String NAME = "errorproneClasspath";
+
+  private final Map<List<String>, Set<File>> filesByComponents = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the files of the configuration, resolving its artifacts (as the given files) only if
+   * no other project already did for the same resolved components.
+   */
+  Set<File> getFiles(Configuration configuration, FileCollection files) {
+    ResolutionResult resolutionResult = configuration.getIncoming().getResolutionResult();
+    ComponentIdentifier root = resolutionResult.getRoot().getId();
+    List<String> components = new ArrayList<>();
+    // Kept in order, as the order of the files could depend on it
+    for (ResolvedComponentResult component : resolutionResult.getAllComponents()) {
+      if (!component.getId().equals(root)) {
+        components.add(component.getId().getDisplayName());
+      }
+    }
+    if (components.isEmpty()) {
+      return Collections.emptySet();
+    }
+    return filesByComponents.computeIfAbsent(
+        components, unused -> Collections.unmodifiableSet(new LinkedHashSet<>(files.getFiles())));
+  }
+}
@@ -0,0 +1,221 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.tools.Diagnostic;
+import org.gradle.api.Action;
+import org.gradle.api.Task;
+import org.gradle.api.file.Directory;
+import org.gradle.api.logging.StandardOutputListener;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.compile.JavaCompile;
+
+/**
+ * Records the Error Prone warnings of a {@link JavaCompile} task into a task output, as {@link
+ * ErrorProneFindings} for each source file, so they can be {@linkplain
+ * ErrorProneDiagnosticsReplayService replayed} when the task is up-to-date or its outputs are
+ * loaded from the build cache.
+ *
+ * <p>Gradle prints the compiler's diagnostics to the standard error, so they're recorded from the
+ * output of the task while it executes, keeping the warnings with a check name (Error Prone's, but
+ * also javac's lint warnings, that can't be told apart) for the task's own sources. Only warnings
+ * are recorded, as the task fails on errors and its outputs are then never reused.
+ *
+ * <p>After an incremental compilation, the warnings of the sources that weren't recompiled are
+ * kept, and those of the sources whose content changed are replaced. A source that's recompiled
+ * only because of a change in another file keeps its previous warnings if it reports none anymore.
+ */
+final class ErrorProneCompileDiagnostics {
+  private static final Pattern WARNING = Pattern.compile("^(.+):(\\d+): warning: \\[[\\w-]+\\] ");
+  // Another diagnostic, or javac's summary
+  private static final Pattern END_OF_DIAGNOSTIC =
+      Pattern.compile("^(?:\\S.*:\\d+: \\w+: |(?:error|warning|Note): |\\d+ (?:error|warning)s?$)");
+
+  /** Returns the actions recording the warnings, to run first and last, respectively. */
+  static List<Action<Task>> actions(
+      ErrorProneOptions errorproneOptions, Provider<Directory> findingsDirectory, File projectDir) {
+    Recording recording = new Recording();
+    return Arrays.asList(
+        new Start(errorproneOptions, findingsDirectory, recording),
+        new Finish(errorproneOptions, findingsDirectory, projectDir, recording));
+  }
+
+  /** Parses the warnings from the output of the compiler, by (absolute) path of source file. */
+  static Map<String, List<ErrorProneDiagnostic>> parse(CharSequence output) {
+    Map<String, List<ErrorProneDiagnostic>> diagnostics = new HashMap<>();
+    List<String> rendered = new ArrayList<>();
+    String source = null;
+    long line = 0;
+    for (String outputLine : output.toString().split("\\R")) {
+      Matcher warning = WARNING.matcher(outputLine);
+      if (source != null && (warning.lookingAt() || END_OF_DIAGNOSTIC.matcher(outputLine).find())) {
+        add(diagnostics, source, line, rendered);
+        source = null;
+      }
+      if (warning.lookingAt()) {
+        source = warning.group(1);
+        line = Long.parseLong(warning.group(2));
+        rendered.clear();
+      }
+      if (source != null) {
+        rendered.add(outputLine);
+      }
+    }
+    if (source != null) {
+      add(diagnostics, source, line, rendered);
+    }
+    return diagnostics;
+  }
+
+  private static void add(
+      Map<String, List<ErrorProneDiagnostic>> diagnostics,
+      String source,
+      long line,
+      List<String> rendered) {
+    while (!rendered.isEmpty() && rendered.get(rendered.size() - 1).trim().isEmpty()) {
+      rendered.remove(rendered.size() - 1);
+    }
+    String message = rendered.get(0).substring(rendered.get(0).indexOf(": warning: ") + 11);
+    diagnostics
+        .computeIfAbsent(source, unused -> new ArrayList<>())
+        .add(
+            new ErrorProneDiagnostic(
+                Diagnostic.Kind.WARNING,
+                source,
+                message.substring(1, message.indexOf(']')),
+                line,
+                0,
+                String.join("\n", rendered)));
+  }
+
+  /** The output of the task, while it executes. */
+  private static final class Recording implements StandardOutputListener {
+    private final StringBuilder output = new StringBuilder();
+
+    @Override
+    public synchronized void onOutput(CharSequence output) {
+      this.output.append(output);
+    }
+
+    synchronized String getAndClear() {
+      String result = output.toString();
+      output.setLength(0);
+      return result;
+    }
+  }
+
+  private static final class Start implements Action<Task> {
+    private final ErrorProneOptions errorproneOptions;
+    private final Provider<Directory> findingsDirectory;
+    private final Recording recording;
+
+    Start(
+        ErrorProneOptions errorproneOptions,
+        Provider<Directory> findingsDirectory,
+        Recording recording) {
+      this.errorproneOptions = errorproneOptions;
+      this.findingsDirectory = findingsDirectory;
+      this.recording = recording;
+    }
+
+    @Override
+    public void execute(Task task) {
+      recording.getAndClear();
+      if (!ErrorPronePlugin.isEnabledInCompileTask(errorproneOptions)) {
+        // Don't replay warnings from a previous execution
+        new ErrorProneFindings(findingsDirectory.get().getAsFile())
+            .retainOnly(Collections.emptySet());
+        return;
+      }
+      task.getLogging().addStandardErrorListener(recording);
+      task.getLogging().addStandardOutputListener(recording);
+    }
+  }
+
+  private static final class Finish implements Action<Task> {
+    private final ErrorProneOptions errorproneOptions;
+    private final Provider<Directory> findingsDirectory;
+    private final File projectDir;
+    private final Recording recording;
+
+    Finish(
+        ErrorProneOptions errorproneOptions,
+        Provider<Directory> findingsDirectory,
+        File projectDir,
+        Recording recording) {
+      this.errorproneOptions = errorproneOptions;
+      this.findingsDirectory = findingsDirectory;
+      this.projectDir = projectDir;
+      this.recording = recording;
+    }
+
+    @Override
+    public void execute(Task task) {
+      task.getLogging().removeStandardErrorListener(recording);
+      task.getLogging().removeStandardOutputListener(recording);
+      String output = recording.getAndClear();
+      if (!ErrorPronePlugin.isEnabledInCompileTask(errorproneOptions)) {
+        return;
+      }
+      JavaCompile javaCompile = (JavaCompile) task;
+      File directory = findingsDirectory.get().getAsFile();
+      ErrorProneFindings findings = new ErrorProneFindings(directory);
+      List<String> arguments = new ArrayList<>();
+      arguments.add(errorproneOptions.toString());
+      arguments.addAll(javaCompile.getOptions().getCompilerArgs());
+      ErrorProneFindings.Configuration configuration =
+          new ErrorProneFindings.Configuration(
+              ErrorProneFindings.fingerprint(arguments, Collections.emptyList(), projectDir),
+              Collections.emptyMap());
+      // Warnings of sources that weren't recompiled can only be kept with the same options
+      if (configuration.changedChecks(findings.getConfiguration()) == null) {
+        findings.retainOnly(Collections.emptySet());
+      }
+      try {
+        Files.createDirectories(directory.toPath());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      // Output of concurrent tasks could have been recorded too, keep only those for our sources
+      Map<String, List<ErrorProneDiagnostic>> diagnostics = parse(output);
+      Set<String> keys = new HashSet<>();
+      javaCompile
+          .getSource()
+          .visit(
+              details -> {
+                if (details.isDirectory()) {
+                  return;
+                }
+                String key =
+                    ErrorProneFindings.key(
+                        details.getRelativePath().getPathString(), details.getFile());
+                keys.add(key);
+                List<ErrorProneDiagnostic> sourceDiagnostics =
+                    diagnostics.get(details.getFile().getAbsolutePath());
+                if (sourceDiagnostics != null) {
+                  List<ErrorProneDiagnostic> relativized = new ArrayList<>();
+                  for (ErrorProneDiagnostic diagnostic : sourceDiagnostics) {
+                    relativized.add(diagnostic.relativize(projectDir));
+                  }
+                  findings.put(key, relativized);
+                }
+              });
+      findings.retainOnly(keys);
+      findings.putConfiguration(configuration);
+    }
+  }
+
+  private ErrorProneCompileDiagnostics() {}
+}
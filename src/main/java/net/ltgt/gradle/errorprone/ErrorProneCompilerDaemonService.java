@@ -0,0 +1,77 @@
+package net.ltgt.gradle.errorprone;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Keeps track of the forked compilations running Error Prone, whose fork options are normalized so
+ * they share compiler daemons, to replace those daemons after a given number of compilations with
+ * the same fork options and report at the end of the build how much they've been reused.
+ *
+ * <p>Gradle reuses a compiler daemon for any compilation with the same toolchain and compatible
+ * fork options, so a daemon is replaced by making the JVM arguments of the following compilations
+ * different, and the actual number of daemons can be lower than the number of distinct fork
+ * options reported here (e.g. when daemons are reused from a previous build).
+ */
+abstract class ErrorProneCompilerDaemonService
+    implements BuildService<ErrorProneCompilerDaemonService.Parameters>, AutoCloseable {
+  static final String NAME = "errorproneCompilerDaemon";
+
+  private static final Logger LOGGER = Logging.getLogger(ErrorProneCompilerDaemonService.class);
+
+  interface Parameters extends BuildServiceParameters {
+    /** The maximum heap size of all compiler daemons, overriding that of each task, if set. */
+    Property<String> getMaxHeapSize();
+
+    /**
+     * The number of compilations after which a compiler daemon is replaced by a new one, or 0 to
+     * never replace them.
+     */
+    Property<Integer> getMaxCompilations();
+  }
+
+  private final Map<String, Integer> tasksByForkOptions = new HashMap<>();
+  private final Set<String> forkOptions = new HashSet<>();
+  private int compilations;
+
+  /**
+   * Returns the generation of the compiler daemon a task with the given toolchain and normalized
+   * fork options should run in, counting the tasks with the same toolchain and fork options.
+   *
+   * <p>This is called at configuration time, for each task of the task graph.
+   */
+  synchronized int generation(String toolchain, String normalizedForkOptions) {
+    int tasks = tasksByForkOptions.merge(toolchain + "\n" + normalizedForkOptions, 1, Integer::sum);
+    int maxCompilations = getParameters().getMaxCompilations().getOrElse(0);
+    return maxCompilations > 0 ? (tasks - 1) / maxCompilations : 0;
+  }
+
+  /**
+   * Records a forked compilation with the given toolchain and effective fork options (including
+   * the generation of its compiler daemon).
+   */
+  synchronized void record(String toolchain, String effectiveForkOptions) {
+    compilations++;
+    forkOptions.add(toolchain + "\n" + effectiveForkOptions);
+  }
+
+  @Override
+  public synchronized void close() {
+    if (compilations == 0) {
+      return;
+    }
+    LOGGER.info(
+        "{} forked Error Prone compilations used {} distinct compiler daemon fork options"
+            + " (reuse rate: {}%)",
+        compilations,
+        forkOptions.size(),
+        100 * (compilations - forkOptions.size()) / compilations);
+  }
+}
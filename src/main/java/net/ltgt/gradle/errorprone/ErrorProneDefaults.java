@@ -0,0 +1,325 @@
+package net.ltgt.gradle.errorprone;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Error Prone options shared by all {@link ErrorProneOptions tasks} of a project, or all projects
+ * of a build.
+ *
+ * <p>The plugin registers such an extension on each project, that the {@code errorprone} options
+ * of the project's tasks inherit from. The {@code net.ltgt.errorprone-settings} plugin registers
+ * one on the settings, that those of all projects inherit from.
+ *
+ * <p>Options are inherited lazily: boolean options are conventions, and {@link #getChecks()
+ * checks}, {@link #getCheckOptions() checkOptions}, and {@link #getErrorproneArgs()
+ * errorproneArgs} are combined with those of the inheriting task (or project), which only stores
+ * its own entries, and whose entries take precedence. Tasks only keep providers of those values,
+ * never a reference to the defaults themselves.
+ *
+ * <p>Only the options declared here can have defaults; others, like {@link
+ * ErrorProneOptions#getExcludedPaths() excludedPaths} or {@link
+ * ErrorProneOptions#getArgumentFiles() argumentFiles}, have to be configured on each task.
+ */
+public abstract class ErrorProneDefaults {
+
+  public static final String NAME = "errorproneDefaults";
+
+  private @Nullable ErrorProneDefaults parent;
+
+  /**
+   * Error Prone dependencies, as {@code group:name:version} notations, added to all source sets, so
+   * that each project's own {@code errorprone} configuration can be left empty.
+   *
+   * <p>Each project resolves them in a detached configuration, only created when there are such
+   * dependencies, but their artifacts are only resolved once for the whole build, by the first
+   * project that needs them, and shared through a build service with the other projects whose
+   * dependency graph resolved to the same components. Only external dependencies are supported.
+   */
+  public abstract ListProperty<String> getSharedDependencies();
+
+  /**
+   * Disable all Error Prone checks; maps to {@code -XepDisableAllChecks}.
+   *
+   * @see ErrorProneOptions#getDisableAllChecks()
+   */
+  public abstract Property<Boolean> getDisableAllChecks();
+
+  /**
+   * Maps to {@code -XepDisableAllWarnings}.
+   *
+   * @see ErrorProneOptions#getDisableAllWarnings()
+   */
+  public abstract Property<Boolean> getDisableAllWarnings();
+
+  /**
+   * Maps to {@code -XepAllErrorsAsWarnings}.
+   *
+   * @see ErrorProneOptions#getAllErrorsAsWarnings()
+   */
+  public abstract Property<Boolean> getAllErrorsAsWarnings();
+
+  /**
+   * Maps to {@code -XepAllSuggestionsAsWarnings}.
+   *
+   * @see ErrorProneOptions#getAllSuggestionsAsWarnings()
+   */
+  public abstract Property<Boolean> getAllSuggestionsAsWarnings();
+
+  /**
+   * Maps to {@code -XepAllDisabledChecksAsWarnings}.
+   *
+   * @see ErrorProneOptions#getAllDisabledChecksAsWarnings()
+   */
+  public abstract Property<Boolean> getAllDisabledChecksAsWarnings();
+
+  /**
+   * Maps to {@code -XepDisableWarningsInGeneratedCode}.
+   *
+   * @see ErrorProneOptions#getDisableWarningsInGeneratedCode()
+   */
+  public abstract Property<Boolean> getDisableWarningsInGeneratedCode();
+
+  /**
+   * Maps to {@code -XepIgnoreUnknownCheckNames}.
+   *
+   * @see ErrorProneOptions#getIgnoreUnknownCheckNames()
+   */
+  public abstract Property<Boolean> getIgnoreUnknownCheckNames();
+
+  /**
+   * Maps to {@code -XepIgnoreSuppressionAnnotations}.
+   *
+   * @see ErrorProneOptions#getIgnoreSuppressionAnnotations()
+   */
+  public abstract Property<Boolean> getIgnoreSuppressionAnnotations();
+
+  /**
+   * Disables library-specific checks when their library isn't on the compile classpath.
+   *
+   * @see ErrorProneOptions#getDisableChecksForMissingLibraries()
+   */
+  public abstract Property<Boolean> getDisableChecksForMissingLibraries();
+
+  /**
+   * Runs compilations forking with a custom {@code javaHome} or {@code executable} in a compiler
+   * daemon when possible.
+   *
+   * @see ErrorProneOptions#getPreferCompilerDaemon()
+   */
+  public abstract Property<Boolean> getPreferCompilerDaemon();
+
+  /**
+   * A map of check name to {@link CheckSeverity}.
+   *
+   * @see ErrorProneOptions#getChecks()
+   */
+  public abstract MapProperty<String, CheckSeverity> getChecks();
+
+  /**
+   * A map of check options to their value.
+   *
+   * @see ErrorProneOptions#getCheckOptions()
+   */
+  public abstract MapProperty<String, String> getCheckOptions();
+
+  /**
+   * Additional arguments passed to Error Prone, before those of the inheriting tasks.
+   *
+   * @see ErrorProneOptions#getErrorproneArgs()
+   */
+  public abstract ListProperty<String> getErrorproneArgs();
+
+  @SuppressWarnings("this-escape")
+  public ErrorProneDefaults() {
+    getDisableAllChecks().convention(false);
+    getDisableAllWarnings().convention(false);
+    getAllErrorsAsWarnings().convention(false);
+    getAllSuggestionsAsWarnings().convention(false);
+    getAllDisabledChecksAsWarnings().convention(false);
+    getDisableWarningsInGeneratedCode().convention(false);
+    getIgnoreUnknownCheckNames().convention(false);
+    getIgnoreSuppressionAnnotations().convention(false);
+    getDisableChecksForMissingLibraries().convention(false);
+    getPreferCompilerDaemon().convention(false);
+  }
+
+  /**
+   * Adds checks with their default severity.
+   *
+   * @see ErrorProneOptions#enable(String...)
+   */
+  public void enable(String... checkNames) {
+    set(checkNames, CheckSeverity.DEFAULT);
+  }
+
+  /**
+   * Disable checks.
+   *
+   * @see ErrorProneOptions#disable(String...)
+   */
+  public void disable(String... checkNames) {
+    set(checkNames, CheckSeverity.OFF);
+  }
+
+  /**
+   * Adds checks with warning severity.
+   *
+   * @see ErrorProneOptions#warn(String...)
+   */
+  public void warn(String... checkNames) {
+    set(checkNames, CheckSeverity.WARN);
+  }
+
+  /**
+   * Adds checks with error severity.
+   *
+   * @see ErrorProneOptions#error(String...)
+   */
+  public void error(String... checkNames) {
+    set(checkNames, CheckSeverity.ERROR);
+  }
+
+  private void set(String[] checkNames, CheckSeverity severity) {
+    for (String checkName : checkNames) {
+      check(checkName, severity);
+    }
+  }
+
+  /**
+   * Adds pairs of check name to severity.
+   *
+   * @see ErrorProneOptions#check(kotlin.Pair[])
+   */
+  @SafeVarargs
+  public final void check(kotlin.Pair<String, CheckSeverity>... pairs) {
+    for (kotlin.Pair<String, CheckSeverity> pair : pairs) {
+      check(pair.getFirst(), pair.getSecond());
+    }
+  }
+
+  /**
+   * Adds a check with a given severity.
+   *
+   * @see ErrorProneOptions#check(String, CheckSeverity)
+   */
+  public void check(String checkName, CheckSeverity severity) {
+    ErrorProneOptions.validateName(checkName);
+    getChecks().put(checkName, severity);
+  }
+
+  /**
+   * Adds a check with a given severity.
+   *
+   * @see ErrorProneOptions#check(String, Provider)
+   */
+  public void check(String checkName, Provider<CheckSeverity> severity) {
+    ErrorProneOptions.validateName(checkName);
+    getChecks().put(checkName, severity);
+  }
+
+  /**
+   * Adds checks with their severity, all at once.
+   *
+   * @see ErrorProneOptions#checks(Map)
+   */
+  public void checks(Map<String, CheckSeverity> checks) {
+    checks.keySet().forEach(ErrorProneOptions::validateName);
+    getChecks().putAll(checks);
+  }
+
+  /**
+   * Adds a check option with a {@code true} boolean value.
+   *
+   * @see ErrorProneOptions#option(String)
+   */
+  public void option(String name) {
+    option(name, true);
+  }
+
+  /**
+   * Adds a check option with a given boolean value.
+   *
+   * @see ErrorProneOptions#option(String, boolean)
+   */
+  public void option(String name, boolean value) {
+    option(name, String.valueOf(value));
+  }
+
+  /**
+   * Adds a check option with a given value.
+   *
+   * @see ErrorProneOptions#option(String, String)
+   */
+  public void option(String name, String value) {
+    getCheckOptions().put(name, value);
+  }
+
+  /**
+   * Adds a check option with a given value.
+   *
+   * @see ErrorProneOptions#option(String, Provider)
+   */
+  public void option(String name, Provider<String> value) {
+    getCheckOptions().put(name, value);
+  }
+
+  /** Makes these defaults inherit from the given ones. */
+  void inheritFrom(ErrorProneDefaults parent) {
+    this.parent = parent;
+    getSharedDependencies().convention(parent.getSharedDependencies());
+    getDisableAllChecks().convention(parent.getDisableAllChecks());
+    getDisableAllWarnings().convention(parent.getDisableAllWarnings());
+    getAllErrorsAsWarnings().convention(parent.getAllErrorsAsWarnings());
+    getAllSuggestionsAsWarnings().convention(parent.getAllSuggestionsAsWarnings());
+    getAllDisabledChecksAsWarnings().convention(parent.getAllDisabledChecksAsWarnings());
+    getDisableWarningsInGeneratedCode().convention(parent.getDisableWarningsInGeneratedCode());
+    getIgnoreUnknownCheckNames().convention(parent.getIgnoreUnknownCheckNames());
+    getIgnoreSuppressionAnnotations().convention(parent.getIgnoreSuppressionAnnotations());
+    getDisableChecksForMissingLibraries()
+        .convention(parent.getDisableChecksForMissingLibraries());
+    getPreferCompilerDaemon().convention(parent.getPreferCompilerDaemon());
+  }
+
+  /** Returns the checks, including inherited ones. */
+  Provider<Map<String, CheckSeverity>> getEffectiveChecks() {
+    return parent == null
+        ? getChecks()
+        : parent.getEffectiveChecks().zip(getChecks(), ErrorProneDefaults::merge);
+  }
+
+  /** Returns the check options, including inherited ones. */
+  Provider<Map<String, String>> getEffectiveCheckOptions() {
+    return parent == null
+        ? getCheckOptions()
+        : parent.getEffectiveCheckOptions().zip(getCheckOptions(), ErrorProneDefaults::merge);
+  }
+
+  /** Returns the Error Prone arguments, including inherited ones (first). */
+  Provider<List<String>> getEffectiveErrorproneArgs() {
+    return parent == null
+        ? getErrorproneArgs()
+        : parent
+            .getEffectiveErrorproneArgs()
+            .zip(
+                getErrorproneArgs(),
+                (inherited, own) -> {
+                  List<String> errorproneArgs = new ArrayList<>(inherited);
+                  errorproneArgs.addAll(own);
+                  return errorproneArgs;
+                });
+  }
+
+  private static <V> Map<String, V> merge(Map<String, V> inherited, Map<String, V> own) {
+    Map<String, V> merged = new LinkedHashMap<>(inherited);
+    merged.putAll(own);
+    return merged;
+  }
+}
@@ -0,0 +1,199 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A diagnostic reported by {@code javac} or Error Prone, detached from the compiler so it can be
+ * exchanged with worker processes and merged across compilations.
+ */
+final class ErrorProneDiagnostic implements Comparable<ErrorProneDiagnostic>, Serializable {
+  private static final long serialVersionUID = 2L;
+
+  private static final Pattern CHECK_NAME = Pattern.compile("^\\[(\\w+)\\] ");
+
+  private static final Comparator<ErrorProneDiagnostic> COMPARATOR =
+      Comparator.comparing(
+              (ErrorProneDiagnostic diagnostic) -> diagnostic.source,
+              Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+          .thenComparingLong(diagnostic -> diagnostic.line)
+          .thenComparingLong(diagnostic -> diagnostic.column)
+          .thenComparing(diagnostic -> diagnostic.kind)
+          .thenComparing(diagnostic -> diagnostic.rendered);
+
+  static ErrorProneDiagnostic of(Diagnostic<? extends JavaFileObject> diagnostic) {
+    JavaFileObject source = diagnostic.getSource();
+    Matcher checkName = CHECK_NAME.matcher(diagnostic.getMessage(Locale.ROOT));
+    return new ErrorProneDiagnostic(
+        diagnostic.getKind(),
+        source == null ? null : source.getName(),
+        checkName.lookingAt() ? checkName.group(1) : null,
+        diagnostic.getLineNumber(),
+        diagnostic.getColumnNumber(),
+        diagnostic.toString());
+  }
+
+  static void write(File file, Collection<ErrorProneDiagnostic> diagnostics) {
+    try (ObjectOutputStream out =
+        new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeObject(new ArrayList<>(diagnostics));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static List<ErrorProneDiagnostic> read(File file) {
+    try (ObjectInputStream in =
+        new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      return (List<ErrorProneDiagnostic>) in.readObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (ClassNotFoundException e) {
+      throw new LinkageError("Shouldn't happen", e);
+    }
+  }
+
+  /** Returns a count of diagnostics as {@code javac} would print it, e.g. {@code "2 errors"}. */
+  static String count(int count, String kind) {
+    return count + " " + kind + (count == 1 ? "" : "s");
+  }
+
+  private final Diagnostic.Kind kind;
+  private final @Nullable String source;
+  private final @Nullable String check;
+  private final long line;
+  private final long column;
+  private final String rendered;
+
+  ErrorProneDiagnostic(
+      Diagnostic.Kind kind,
+      @Nullable String source,
+      @Nullable String check,
+      long line,
+      long column,
+      String rendered) {
+    this.kind = kind;
+    this.source = source;
+    this.check = check;
+    this.line = line;
+    this.column = column;
+    this.rendered = rendered;
+  }
+
+  Diagnostic.Kind getKind() {
+    return kind;
+  }
+
+  /** The path of the source file, or {@code null} if the diagnostic isn't tied to a source file. */
+  @Nullable String getSource() {
+    return source;
+  }
+
+  /**
+   * Returns this diagnostic with the path of its source file relative to the given directory, if
+   * the file is inside it, so it can be stored in relocatable outputs.
+   *
+   * @see #resolve(File)
+   */
+  ErrorProneDiagnostic relativize(File directory) {
+    String prefix = directory.getAbsolutePath() + File.separator;
+    if (source == null || !source.startsWith(prefix)) {
+      return this;
+    }
+    return withSource(source, source.substring(prefix.length()));
+  }
+
+  /**
+   * Returns this diagnostic with the relative path of its source file resolved against the given
+   * directory.
+   *
+   * @see #relativize(File)
+   */
+  ErrorProneDiagnostic resolve(File directory) {
+    if (source == null || new File(source).isAbsolute()) {
+      return this;
+    }
+    return withSource(source, new File(directory, source).getPath());
+  }
+
+  private ErrorProneDiagnostic withSource(String oldSource, String newSource) {
+    // javac renders the diagnostic starting with the path to the source file
+    String newRendered =
+        rendered.startsWith(oldSource)
+            ? newSource + rendered.substring(oldSource.length())
+            : rendered;
+    return new ErrorProneDiagnostic(kind, newSource, check, line, column, newRendered);
+  }
+
+  /**
+   * The name of the Error Prone check that reported the diagnostic, or {@code null} if it wasn't
+   * reported by a check.
+   */
+  @Nullable String getCheck() {
+    return check;
+  }
+
+  boolean isError() {
+    return kind == Diagnostic.Kind.ERROR;
+  }
+
+  boolean isWarning() {
+    return kind == Diagnostic.Kind.WARNING || kind == Diagnostic.Kind.MANDATORY_WARNING;
+  }
+
+  /** The diagnostic as {@code javac} would print it. */
+  String getRendered() {
+    return rendered;
+  }
+
+  @Override
+  public int compareTo(ErrorProneDiagnostic other) {
+    return COMPARATOR.compare(this, other);
+  }
+
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof ErrorProneDiagnostic)) {
+      return false;
+    }
+    ErrorProneDiagnostic other = (ErrorProneDiagnostic) obj;
+    return kind == other.kind
+        && Objects.equals(source, other.source)
+        && line == other.line
+        && column == other.column
+        && rendered.equals(other.rendered);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(kind, source, line, column, rendered);
+  }
+
+  @Override
+  public String toString() {
+    return rendered;
+  }
+}
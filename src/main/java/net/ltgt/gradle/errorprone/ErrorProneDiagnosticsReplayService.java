@@ -0,0 +1,84 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.File;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.tooling.events.FinishEvent;
+import org.gradle.tooling.events.OperationCompletionListener;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+import org.gradle.tooling.events.task.TaskOperationResult;
+import org.gradle.tooling.events.task.TaskSuccessResult;
+
+/**
+ * Replays the Error Prone warnings {@linkplain ErrorProneCompileDiagnostics recorded} by the
+ * {@link org.gradle.api.tasks.compile.JavaCompile} tasks of a project when they're up-to-date or
+ * their outputs are loaded from the build cache, as their actions (that would print them) don't run
+ * then.
+ *
+ * <p>There's one such service per project, so it never needs to know about other projects.
+ */
+abstract class ErrorProneDiagnosticsReplayService
+    implements BuildService<ErrorProneDiagnosticsReplayService.Parameters>,
+        OperationCompletionListener {
+  static final String NAME = "errorproneDiagnosticsReplay";
+
+  private static final Logger LOGGER = Logging.getLogger(ErrorProneDiagnosticsReplayService.class);
+
+  interface Parameters extends BuildServiceParameters {
+    /** The path of the project, to match the paths of its tasks. */
+    Property<String> getProjectPath();
+
+    /** The project directory, to resolve the paths of the recorded warnings. */
+    DirectoryProperty getProjectDirectory();
+
+    /** The directory containing the recorded warnings, in a subdirectory per task name. */
+    DirectoryProperty getDiagnosticsDirectory();
+  }
+
+  @Override
+  public void onFinish(FinishEvent event) {
+    if (!(event instanceof TaskFinishEvent)) {
+      return;
+    }
+    TaskOperationResult result = ((TaskFinishEvent) event).getResult();
+    if (!(result instanceof TaskSuccessResult)
+        || !(((TaskSuccessResult) result).isUpToDate()
+            || ((TaskSuccessResult) result).isFromCache())) {
+      return;
+    }
+    String taskPath = ((TaskFinishEvent) event).getDescriptor().getTaskPath();
+    String projectPath = getParameters().getProjectPath().get();
+    String prefix = projectPath.equals(":") ? ":" : projectPath + ":";
+    if (!taskPath.startsWith(prefix) || taskPath.indexOf(':', prefix.length()) >= 0) {
+      return;
+    }
+    File directory =
+        getParameters()
+            .getDiagnosticsDirectory()
+            .dir(taskPath.substring(prefix.length()))
+            .get()
+            .getAsFile();
+    List<ErrorProneDiagnostic> findings = new ErrorProneFindings(directory).getAll();
+    if (findings.isEmpty()) {
+      return;
+    }
+    File projectDir = getParameters().getProjectDirectory().get().getAsFile();
+    SortedSet<ErrorProneDiagnostic> diagnostics = new TreeSet<>();
+    for (ErrorProneDiagnostic diagnostic : findings) {
+      // Paths are relative to the project directory, which could have moved since the compilation
+      diagnostics.add(diagnostic.resolve(projectDir));
+    }
+    LOGGER.warn("Error Prone warnings from the previous execution of {}:", taskPath);
+    for (ErrorProneDiagnostic diagnostic : diagnostics) {
+      LOGGER.warn(diagnostic.getRendered());
+    }
+    LOGGER.warn(ErrorProneDiagnostic.count(diagnostics.size(), "warning"));
+  }
+}
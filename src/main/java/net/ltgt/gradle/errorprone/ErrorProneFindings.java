@@ -0,0 +1,293 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Error Prone findings for each source file, stored in a directory and addressed by the source
+ * file's path and content.
+ *
+ * <p>The directory is expected to only contain findings computed with the same Error Prone
+ * options, Error Prone classpath, and classpath ABI; it's up to the caller to clear it otherwise,
+ * or to update the findings of the checks whose severity changed, as recorded in the {@link
+ * Configuration}.
+ */
+final class ErrorProneFindings {
+  private static final String SUFFIX = ".bin";
+  private static final String GLOBAL = "global" + SUFFIX;
+  private static final String CONFIGURATION = "configuration" + SUFFIX;
+  // Bump whenever the serialized form of the findings changes.
+  private static final String FORMAT_VERSION = "2";
+  private static final String PROJECT_DIR = "$PROJECT_DIR";
+
+  static String key(String relativePath, File sourceFile) {
+    MessageDigest digest = newDigest();
+    digest.update(relativePath.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    byte[] buffer = new byte[8192];
+    try (InputStream in = Files.newInputStream(sourceFile.toPath())) {
+      for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+        digest.update(buffer, 0, read);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Computes a fingerprint of the given arguments and files, to detect changes other than the
+   * checks' severities.
+   *
+   * <p>The fingerprint doesn't depend on where the project or the files are: occurrences of the
+   * project directory in the arguments (including quoted in {@code -XepExcludedPaths}) are replaced
+   * with a placeholder, and files are fingerprinted by their content and, for directories, the
+   * paths of the files relative to them. Findings can then be reused after the project has been
+   * moved, or its outputs restored from the build cache on another machine.
+   */
+  static String fingerprint(List<String> arguments, Iterable<File> files, File projectDir) {
+    String projectPath = projectDir.getAbsolutePath();
+    // As in PathTrie's regular expressions, that start with the optional leading slash
+    String quotedProjectPath = "/?" + PathTrie.quote(projectPath);
+    MessageDigest digest = newDigest();
+    digest.update(FORMAT_VERSION.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    for (String argument : arguments) {
+      String relocatable =
+          argument
+              .replace(projectPath, PROJECT_DIR)
+              .replace(quotedProjectPath, "/?" + PROJECT_DIR);
+      digest.update(relocatable.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+    }
+    byte[] buffer = new byte[8192];
+    for (File file : files) {
+      Path root = file.toPath();
+      if (!Files.exists(root)) {
+        digest.update((byte) 1);
+        continue;
+      }
+      try (Stream<Path> paths = Files.walk(root)) {
+        for (Path path : (Iterable<Path>) paths.sorted()::iterator) {
+          if (!Files.isRegularFile(path)) {
+            continue;
+          }
+          String relativePath = root.relativize(path).toString().replace(File.separatorChar, '/');
+          digest.update(relativePath.getBytes(StandardCharsets.UTF_8));
+          digest.update((byte) 0);
+          try (InputStream in = Files.newInputStream(path)) {
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+              digest.update(buffer, 0, read);
+            }
+          }
+          digest.update((byte) 0);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      digest.update((byte) 2);
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Computes a fingerprint of the given files by their path, size, and last modification time,
+   * which is cheaper than {@linkplain #fingerprint(List, Iterable, File) hashing their content} but
+   * only suitable for caches that don't outlive the process.
+   */
+  static String fingerprintByPath(Iterable<File> files) {
+    MessageDigest digest = newDigest();
+    for (File file : files) {
+      if (!file.exists()) {
+        continue;
+      }
+      try (Stream<Path> paths = Files.walk(file.toPath())) {
+        for (Path path : (Iterable<Path>) paths.sorted()::iterator) {
+          BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+          if (attributes.isRegularFile()) {
+            digest.update(path.toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(
+                (attributes.size() + ":" + attributes.lastModifiedTime().toMillis())
+                    .getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  /** Returns a hex-encoded hash of the given content. */
+  static String hash(byte[] content) {
+    return toHex(newDigest().digest(content));
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new LinkageError("Shouldn't happen", e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  private final File directory;
+
+  ErrorProneFindings(File directory) {
+    this.directory = directory;
+  }
+
+  /** Returns the findings for the given key, or {@code null} if the source hasn't been analyzed. */
+  @Nullable List<ErrorProneDiagnostic> get(String key) {
+    File file = new File(directory, key + SUFFIX);
+    return file.isFile() ? ErrorProneDiagnostic.read(file) : null;
+  }
+
+  void put(String key, List<ErrorProneDiagnostic> diagnostics) {
+    ErrorProneDiagnostic.write(new File(directory, key + SUFFIX), diagnostics);
+  }
+
+  /** Returns the findings that aren't tied to any source file. */
+  List<ErrorProneDiagnostic> getGlobal() {
+    File file = new File(directory, GLOBAL);
+    return file.isFile() ? ErrorProneDiagnostic.read(file) : Collections.emptyList();
+  }
+
+  void putGlobal(List<ErrorProneDiagnostic> diagnostics) {
+    ErrorProneDiagnostic.write(new File(directory, GLOBAL), diagnostics);
+  }
+
+  /** Returns all the findings, whether tied to a source file or not. */
+  List<ErrorProneDiagnostic> getAll() {
+    List<ErrorProneDiagnostic> diagnostics = new ArrayList<>();
+    File[] files =
+        directory.listFiles((dir, name) -> name.endsWith(SUFFIX) && !name.equals(CONFIGURATION));
+    if (files != null) {
+      for (File file : files) {
+        diagnostics.addAll(ErrorProneDiagnostic.read(file));
+      }
+    }
+    return diagnostics;
+  }
+
+  /** Returns the configuration the findings were computed with, if known. */
+  @Nullable Configuration getConfiguration() {
+    File file = new File(directory, CONFIGURATION);
+    if (!file.isFile()) {
+      return null;
+    }
+    try (ObjectInputStream in =
+        new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      return (Configuration) in.readObject();
+    } catch (IOException | ClassNotFoundException e) {
+      // Written by another version of the plugin
+      return null;
+    }
+  }
+
+  void putConfiguration(Configuration configuration) {
+    try (ObjectOutputStream out =
+        new ObjectOutputStream(
+            new BufferedOutputStream(new FileOutputStream(new File(directory, CONFIGURATION))))) {
+      out.writeObject(configuration);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Deletes the findings for sources that no longer exist, or whose content has changed. */
+  void retainOnly(Set<String> keys) {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if (name.equals(GLOBAL) || name.equals(CONFIGURATION)) {
+        continue;
+      }
+      if (!name.endsWith(SUFFIX)
+          || !keys.contains(name.substring(0, name.length() - SUFFIX.length()))) {
+        try {
+          Files.delete(file.toPath());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+  }
+
+  /** The configuration findings were computed with. */
+  static final class Configuration implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String fingerprint;
+    private final TreeMap<String, CheckSeverity> checks;
+
+    /**
+     * Creates a configuration.
+     *
+     * @param fingerprint a fingerprint of everything but the checks' severities
+     * @param checks the checks' severities
+     */
+    Configuration(String fingerprint, Map<String, CheckSeverity> checks) {
+      this.fingerprint = fingerprint;
+      this.checks = new TreeMap<>(checks);
+    }
+
+    /**
+     * Returns the checks whose severity changed compared to the {@code previous} configuration, or
+     * {@code null} if something else changed, or a check was removed (in which case its effective
+     * severity is unknown).
+     */
+    @Nullable Map<String, CheckSeverity> changedChecks(@Nullable Configuration previous) {
+      if (previous == null || !fingerprint.equals(previous.fingerprint)) {
+        return null;
+      }
+      if (!checks.keySet().containsAll(previous.checks.keySet())) {
+        return null;
+      }
+      Map<String, CheckSeverity> changedChecks = new TreeMap<>();
+      checks.forEach(
+          (name, severity) -> {
+            if (severity != previous.checks.get(name)) {
+              changedChecks.put(name, severity);
+            }
+          });
+      return changedChecks;
+    }
+  }
+}
@@ -0,0 +1,296 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Merges the Error Prone plugin path into a single JAR, so each compiler only has to open one
+ * archive and look up {@code ServiceLoader} registrations in a single place.
+ *
+ * <p>Entries are stored uncompressed, in a deterministic order and with a fixed timestamp. When an
+ * entry appears in several JARs, the first one wins, as it would on a classpath; {@code
+ * META-INF/services} registrations are merged though. Signatures, module descriptors and the
+ * original manifests are dropped.
+ *
+ * <p>Versioned entries ({@code META-INF/versions/<N>/...}) are only kept from Multi-Release JARs,
+ * and only when the JAR also won the corresponding base entry (or no JAR has it), so they never
+ * shadow classes taken from another JAR, whether it comes before or after them. The merged JAR is
+ * a Multi-Release JAR only if it has such versioned entries.
+ */
+@CacheableTask
+public abstract class ErrorProneMergePluginPath extends DefaultTask {
+  // 1980-02-01, the same as Gradle's reproducible archives (the ZIP format starts in 1980)
+  private static final long ENTRY_TIME = 315_532_800_000L + 31L * 24 * 60 * 60 * 1000;
+
+  // Only available as a constant starting with JDK 9
+  private static final Attributes.Name MULTI_RELEASE = new Attributes.Name("Multi-Release");
+
+  private static final String SERVICES_PREFIX = "META-INF/services/";
+  private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+  /** The JARs to merge, generally the files of the {@code errorpronePluginPath} configuration. */
+  @Classpath
+  public abstract ConfigurableFileCollection getPluginPath();
+
+  /** The merged JAR. */
+  @OutputFile
+  public abstract RegularFileProperty getMergedJar();
+
+  @TaskAction
+  void merge() throws IOException {
+    Map<String, Set<String>> services = new LinkedHashMap<>();
+    List<MergedEntry> entries = new ArrayList<>();
+    List<ZipFile> openJars = new ArrayList<>();
+    try {
+      int index = 0;
+      for (File file : getPluginPath().getFiles()) {
+        if (file.isDirectory()) {
+          collectDirectory(file.toPath(), index, services, entries);
+        } else if (file.isFile()) {
+          JarFile jar = new JarFile(file, false);
+          openJars.add(jar);
+          Manifest manifest = jar.getManifest();
+          boolean multiRelease =
+              manifest != null
+                  && "true"
+                      .equalsIgnoreCase(manifest.getMainAttributes().getValue(MULTI_RELEASE));
+          collectJar(jar, multiRelease, index, services, entries);
+        }
+        index++;
+      }
+      entries = resolve(entries);
+
+      Manifest manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      if (entries.stream().anyMatch(entry -> isVersioned(entry.name))) {
+        manifest.getMainAttributes().put(MULTI_RELEASE, "true");
+      }
+      ByteArrayOutputStream manifestContent = new ByteArrayOutputStream();
+      manifest.write(manifestContent);
+      File mergedJar = getMergedJar().get().getAsFile();
+      try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(mergedJar.toPath()))) {
+        writeEntry(out, JarFile.MANIFEST_NAME, manifestContent.toByteArray());
+        for (MergedEntry entry : entries) {
+          writeEntry(out, entry.name, entry.read());
+        }
+        for (Map.Entry<String, Set<String>> service : services.entrySet()) {
+          StringBuilder content = new StringBuilder();
+          for (String provider : service.getValue()) {
+            content.append(provider).append('\n');
+          }
+          writeEntry(out, service.getKey(), content.toString().getBytes(StandardCharsets.UTF_8));
+        }
+      }
+    } finally {
+      for (ZipFile jar : openJars) {
+        jar.close();
+      }
+    }
+  }
+
+  private static void collectJar(
+      ZipFile jar,
+      boolean multiRelease,
+      int index,
+      Map<String, Set<String>> services,
+      List<MergedEntry> entries)
+      throws IOException {
+    for (Enumeration<? extends ZipEntry> it = jar.entries(); it.hasMoreElements(); ) {
+      ZipEntry entry = it.nextElement();
+      String name = entry.getName();
+      if (entry.isDirectory() || isDropped(name)) {
+        continue;
+      }
+      if (isService(name)) {
+        try (InputStream in = jar.getInputStream(entry)) {
+          addProviders(services, name, readAll(in));
+        }
+      } else {
+        entries.add(
+            new MergedEntry(name, index, multiRelease) {
+              @Override
+              byte[] read() throws IOException {
+                try (InputStream in = jar.getInputStream(entry)) {
+                  return readAll(in);
+                }
+              }
+            });
+      }
+    }
+  }
+
+  private static void collectDirectory(
+      Path directory,
+      int index,
+      Map<String, Set<String>> services,
+      List<MergedEntry> entries)
+      throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (Stream<Path> stream = Files.walk(directory)) {
+      stream.filter(Files::isRegularFile).sorted().forEach(files::add);
+    }
+    for (Path file : files) {
+      String name = directory.relativize(file).toString().replace(File.separatorChar, '/');
+      if (isDropped(name)) {
+        continue;
+      }
+      if (isService(name)) {
+        addProviders(services, name, Files.readAllBytes(file));
+      } else {
+        // Directories are never Multi-Release
+        entries.add(
+            new MergedEntry(name, index, false) {
+              @Override
+              byte[] read() throws IOException {
+                return Files.readAllBytes(file);
+              }
+            });
+      }
+    }
+  }
+
+  private static boolean isDropped(String name) {
+    if (name.equals(JarFile.MANIFEST_NAME)
+        || name.equals("META-INF/INDEX.LIST")
+        || name.equals("module-info.class")
+        || (name.startsWith("META-INF/versions/") && name.endsWith("/module-info.class"))) {
+      return true;
+    }
+    if (name.startsWith("META-INF/") && name.indexOf('/', "META-INF/".length()) < 0) {
+      return name.endsWith(".SF")
+          || name.endsWith(".RSA")
+          || name.endsWith(".DSA")
+          || name.endsWith(".EC");
+    }
+    return false;
+  }
+
+  /**
+   * Returns the entries to keep, in order: the first one for each name, as on a classpath, and
+   * versioned entries only from Multi-Release JARs that also won the base entry, or when no input
+   * has it. Base entries are resolved across all the inputs first, so that a versioned entry never
+   * shadows the base entry of a later input.
+   */
+  private static List<MergedEntry> resolve(List<MergedEntry> entries) {
+    // Index of the input each base entry is taken from
+    Map<String, Integer> baseOwners = new HashMap<>();
+    for (MergedEntry entry : entries) {
+      if (!isVersioned(entry.name)) {
+        baseOwners.putIfAbsent(entry.name, entry.index);
+      }
+    }
+    Set<String> versionedNames = new HashSet<>();
+    List<MergedEntry> kept = new ArrayList<>();
+    for (MergedEntry entry : entries) {
+      if (!isVersioned(entry.name)) {
+        if (baseOwners.get(entry.name) == entry.index) {
+          kept.add(entry);
+        }
+        continue;
+      }
+      if (!entry.multiRelease) {
+        // Ignored in the original JAR, so must not be activated in the merged one
+        continue;
+      }
+      int versionEnd = entry.name.indexOf('/', VERSIONS_PREFIX.length());
+      Integer baseOwner = baseOwners.get(entry.name.substring(versionEnd + 1));
+      if ((baseOwner == null || baseOwner == entry.index) && versionedNames.add(entry.name)) {
+        kept.add(entry);
+      }
+    }
+    return kept;
+  }
+
+  private static boolean isVersioned(String name) {
+    return name.startsWith(VERSIONS_PREFIX) && name.indexOf('/', VERSIONS_PREFIX.length()) > 0;
+  }
+
+  private static boolean isService(String name) {
+    return name.startsWith(SERVICES_PREFIX) && name.indexOf('/', SERVICES_PREFIX.length()) < 0;
+  }
+
+  private static void addProviders(
+      Map<String, Set<String>> services, String name, byte[] content) {
+    Set<String> providers = services.computeIfAbsent(name, ignored -> new LinkedHashSet<>());
+    for (String line : new String(content, StandardCharsets.UTF_8).split("\r?\n|\r")) {
+      int comment = line.indexOf('#');
+      String provider = (comment < 0 ? line : line.substring(0, comment)).trim();
+      if (!provider.isEmpty()) {
+        providers.add(provider);
+      }
+    }
+  }
+
+  private static void writeEntry(JarOutputStream out, String name, byte[] content)
+      throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(content.length);
+    entry.setCompressedSize(content.length);
+    entry.setCrc(crc.getValue());
+    entry.setTime(ENTRY_TIME);
+    out.putNextEntry(entry);
+    out.write(content);
+    out.closeEntry();
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    copy(in, out);
+    return out.toByteArray();
+  }
+
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[8192];
+    for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+      out.write(buffer, 0, read);
+    }
+  }
+
+  private abstract static class MergedEntry {
+    final String name;
+    // Index of the input the entry comes from
+    final int index;
+    final boolean multiRelease;
+
+    MergedEntry(String name, int index, boolean multiRelease) {
+      this.name = name;
+      this.index = index;
+      this.multiRelease = multiRelease;
+    }
+
+    abstract byte[] read() throws IOException;
+  }
+}
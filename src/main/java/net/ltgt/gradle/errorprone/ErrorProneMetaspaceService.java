@@ -0,0 +1,60 @@
+package net.ltgt.gradle.errorprone;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Reports, at the end of the build, how much the Gradle daemon's metaspace grew since the first
+ * in-process analysis of the build, along with the state of the {@link ErrorProneClassLoaders}
+ * cache, so class loader leaks become visible; then {@linkplain ErrorProneClassLoaders#closeAll()
+ * closes} the cached class loaders.
+ */
+abstract class ErrorProneMetaspaceService
+    implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+  static final String NAME = "errorproneMetaspace";
+
+  private static final Logger LOGGER = Logging.getLogger(ErrorProneMetaspaceService.class);
+  private static final long MEGABYTE = 1024 * 1024;
+
+  private final long initialMetaspace = metaspaceUsed();
+  private final int initialEvictions = ErrorProneClassLoaders.evictions();
+
+  @Override
+  public void close() {
+    try {
+      report();
+    } finally {
+      ErrorProneClassLoaders.closeAll();
+    }
+  }
+
+  private void report() {
+    long metaspace = metaspaceUsed();
+    if (metaspace < 0 || initialMetaspace < 0) {
+      return;
+    }
+    LOGGER.info(
+        "Metaspace of the Gradle daemon: {} MB used ({}{} MB during Error Prone analyses),"
+            + " {} cached Error Prone class loaders (at most {}), {} evicted",
+        metaspace / MEGABYTE,
+        metaspace >= initialMetaspace ? "+" : "",
+        (metaspace - initialMetaspace) / MEGABYTE,
+        ErrorProneClassLoaders.size(),
+        ErrorProneClassLoaders.MAX_CACHED_CLASS_LOADERS,
+        ErrorProneClassLoaders.evictions() - initialEvictions);
+  }
+
+  /** Returns the used metaspace, in bytes, or -1 if unknown. */
+  private static long metaspaceUsed() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getName().equals("Metaspace")) {
+        return pool.getUsage().getUsed();
+      }
+    }
+    return -1;
+  }
+}
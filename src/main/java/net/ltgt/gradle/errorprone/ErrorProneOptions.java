@@ -1,23 +1,40 @@
 package net.ltgt.gradle.errorprone;
 
+import static java.util.stream.Collectors.joining;
+
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import javax.inject.Inject;
 import kotlin.DeprecationLevel;
 import org.gradle.api.InvalidUserDataException;
 import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileSystemLocation;
 import org.gradle.api.file.ProjectLayout;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.SetProperty;
 import org.gradle.api.tasks.*;
 import org.gradle.api.tasks.compile.CompileOptions;
+import org.gradle.api.tasks.compile.JavaCompile;
 import org.gradle.process.CommandLineArgumentProvider;
 import org.gradle.work.NormalizeLineEndings;
+import org.jspecify.annotations.Nullable;
 
 public abstract class ErrorProneOptions {
 
@@ -28,6 +45,13 @@ public abstract class ErrorProneOptions {
 
   private final ProjectLayout projectLayout;
   private final List<CommandLineArgumentProvider> errorproneArgumentProviders = new ArrayList<>();
+  // Only the inherited values, not the defaults themselves, so they're not serialized with the task
+  private @Nullable Provider<Map<String, CheckSeverity>> defaultChecks;
+  private @Nullable Provider<Map<String, String>> defaultCheckOptions;
+  private @Nullable Provider<List<String>> defaultErrorproneArgs;
+  // Not serialized in the configuration cache, as the classpath could change between builds
+  private transient @Nullable List<String> missingLibrariesClasspathKey;
+  private transient Set<String> missingLibrariesChecks = Collections.emptySet();
 
   @NormalizeLineEndings
   @PathSensitive(PathSensitivity.NONE)
@@ -35,6 +59,21 @@ public abstract class ErrorProneOptions {
   @InputFiles
   public abstract ConfigurableFileCollection getArgumentFiles();
 
+  /**
+   * Writes the options (other than the {@link #getArgumentFiles() argumentFiles}) to an argument
+   * file rather than passing them inline in the {@code -Xplugin:ErrorProne} compiler argument,
+   * which can get very long with many checks and check options. Requires Error Prone 2.48.0 or
+   * later.
+   *
+   * <p>The file is written by the task right before it executes, in the project's {@code
+   * build/tmp/errorprone} directory, and named after the hash of its content, so tasks with the
+   * same options share the same file.
+   *
+   * <p>Defaults to {@code false}.
+   */
+  @Internal
+  public abstract Property<Boolean> getUseArgumentFile();
+
   /**
    * Allows disabling Error Prone altogether for the task.
    *
@@ -48,6 +87,77 @@ public abstract class ErrorProneOptions {
   @Input
   public abstract Property<Boolean> getEnabled();
 
+  /**
+   * Runs Error Prone in a separate analysis task rather than as part of the compilation.
+   *
+   * <p>The compilation task will then run plain {@code javac}, and an {@link ErrorProneAnalyze}
+   * task will analyze the same sources against the compile classpath, stopping after the {@code
+   * FLOW} phase. That task is only registered for {@link SourceSet#getCompileJavaTaskName() tasks
+   * for source sets}, and is a dependency of the {@code check} task.
+   *
+   * <p>Defaults to {@code false}.
+   */
+  @Internal
+  public abstract Property<Boolean> getAnalyzeSeparately();
+
+  /**
+   * The number of shards the sources are split into, by package, when {@link
+   * #getAnalyzeSeparately() analyzed separately}; each shard is analyzed in parallel in its own
+   * worker, against the already compiled classes.
+   *
+   * <p>A value of {@code 0} (or less) means using as many shards as there are available
+   * processors.
+   *
+   * <p>Defaults to {@code 1}.
+   */
+  @Internal
+  public abstract Property<Integer> getAnalysisShards();
+
+  /**
+   * Runs the {@link #getAnalyzeSeparately() separate analysis} in the Gradle daemon rather than in
+   * worker processes, when the daemon runs the same Java version as the task's toolchain and can
+   * run Error Prone (i.e. is either older than JDK 16, or was given the appropriate {@code
+   * --add-exports} and {@code --add-opens} JVM arguments). The analysis otherwise runs in worker
+   * processes.
+   *
+   * <p>Error Prone is then loaded in its own class loader, cached for the lifetime of the daemon
+   * and shared by all the analyses with the same {@code -processorpath}, so its classes are only
+   * loaded (and JIT-compiled) once rather than for each analysis.
+   *
+   * <p>Defaults to {@code false}.
+   */
+  @Internal
+  public abstract Property<Boolean> getAnalyzeInProcess();
+
+  /**
+   * The path of another task that analyzes the same sources with Error Prone (e.g. for a variant
+   * compiled with another {@code --release}), such that it won't run for this one, neither as part
+   * of the compilation nor in a separate analysis task.
+   *
+   * <p>This has to be set explicitly on each such task; make sure the other task always runs along
+   * with them, as nothing else will analyze their sources.
+   *
+   * <p>Not set by default.
+   */
+  @Internal
+  public abstract Property<String> getAnalyzedBy();
+
+  /**
+   * Runs the compilation in a compiler daemon rather than javac from the command line when the task
+   * {@linkplain org.gradle.api.tasks.compile.CompileOptions#isFork() forks} with a custom {@code
+   * javaHome} or {@code executable}, provided the task's {@linkplain
+   * org.gradle.api.tasks.compile.JavaCompile#getJavaCompiler() toolchain} is that same JDK or one
+   * with the same {@code JAVA_VERSION} and {@code IMPLEMENTOR} in its {@code release} file: the
+   * custom {@code javaHome} and {@code executable} are then cleared once the task graph is ready,
+   * before the task's inputs are computed.
+   *
+   * <p>Tasks that still run javac from the command line are reported as warnings.
+   *
+   * <p>Defaults to {@code false}.
+   */
+  @Internal
+  public abstract Property<Boolean> getPreferCompilerDaemon();
+
   /**
    * Disable all Error Prone checks; maps to {@code -XepDisableAllChecks}.
    *
@@ -114,6 +224,64 @@ public abstract class ErrorProneOptions {
   @Input
   public abstract Property<Boolean> getIgnoreSuppressionAnnotations();
 
+  /**
+   * Disables the bundled checks specific to a library (such as Guava, Truth, JUnit, Mockito, Dagger
+   * or Protobuf) when that library isn't on the {@link #getLibraryClasspath() libraryClasspath}, as
+   * they could then never report anything; maps to {@code -Xep:<check>:OFF} for each such check
+   * that isn't explicitly configured in {@link #getChecks() checks}.
+   *
+   * <p>Checks are mapped to libraries by a table bundled with the plugin; if a version of Error
+   * Prone doesn't know some of those checks, enable {@link #getIgnoreUnknownCheckNames()
+   * ignoreUnknownCheckNames}.
+   *
+   * <p>Defaults to {@code false}.
+   */
+  @Input
+  public abstract Property<Boolean> getDisableChecksForMissingLibraries();
+
+  /**
+   * The classpath to look up libraries in, when {@link #getDisableChecksForMissingLibraries()
+   * disableChecksForMissingLibraries} is enabled.
+   *
+   * <p>Defaults to the task's {@link JavaCompile#getClasspath() classpath} for {@link JavaCompile}
+   * tasks.
+   */
+  @Internal
+  public abstract ConfigurableFileCollection getLibraryClasspath();
+
+  /**
+   * The checks disabled by {@link #getDisableChecksForMissingLibraries()
+   * disableChecksForMissingLibraries}, as an input (as the classpath is generally already an input
+   * of the task, with a different normalization).
+   */
+  @Input
+  protected List<String> getChecksForMissingLibraries() {
+    if (!getDisableChecksForMissingLibraries().getOrElse(false)
+        || getDisableAllChecks().getOrElse(false)) {
+      return Collections.emptyList();
+    }
+    Set<String> checks =
+        new TreeSet<>(checksForMissingLibraries(getLibraryClasspath().getFiles()));
+    checks.removeAll(getEffectiveChecks().keySet());
+    return new ArrayList<>(checks);
+  }
+
+  /**
+   * Scans the classpath for libraries, unless it's the same as for the previous call: this is
+   * called both for snapshotting the inputs and to compute the arguments.
+   */
+  private synchronized Set<String> checksForMissingLibraries(Set<File> classpath) {
+    List<String> classpathKey = new ArrayList<>(classpath.size());
+    for (File entry : classpath) {
+      classpathKey.add(entry.getPath() + ":" + entry.length() + ":" + entry.lastModified());
+    }
+    if (!classpathKey.equals(missingLibrariesClasspathKey)) {
+      missingLibrariesChecks = LibraryChecks.checksForMissingLibraries(classpath);
+      missingLibrariesClasspathKey = classpathKey;
+    }
+    return missingLibrariesChecks;
+  }
+
   /**
    * Tells Error Prone that the compilation contains only test code; maps to {@code
    * -XepCompilingTestOnlyCode}.
@@ -127,11 +295,113 @@ public abstract class ErrorProneOptions {
   /**
    * A regular expression pattern (as a string) of file paths to exclude from Error Prone checking;
    * maps to {@code -XepExcludedPaths}.
+   *
+   * <p>The pattern is an input as-is, so absolute paths in it make the task's outputs depend on
+   * the project location (e.g. when loaded from a remote build cache); prefer {@link
+   * #getExcludedPathPatterns() excludedPathPatterns} for paths within the project.
    */
   @Input
   @Optional
   public abstract Property<String> getExcludedPaths();
 
+  /**
+   * Glob patterns of file paths to exclude from Error Prone checking, relative to the project
+   * directory (unless absolute); combined with {@link #getExcludedPaths() excludedPaths} into
+   * {@code -XepExcludedPaths}.
+   *
+   * <p>In the patterns, {@code **} matches any number of directories (or any path when at the
+   * end), {@code *} any number of characters in a file or directory name, and {@code ?} any single
+   * such character.
+   *
+   * <p>The patterns are compiled into a single regular expression factoring out common prefixes,
+   * which is cheaper to match than an equivalent alternation written by hand.
+   *
+   * @see #excludePath(String...)
+   * @see #excludeDirectory(Object...)
+   */
+  @Internal
+  public abstract SetProperty<String> getExcludedPathPatterns();
+
+  /**
+   * The {@link #getExcludedPathPatterns() excludedPathPatterns}, with absolute patterns within the
+   * project directory made relative to it, as an input independent of the project location.
+   */
+  @Input
+  protected List<String> getRelativeExcludedPathPatterns() {
+    return relativePaths(getExcludedPathPatterns().get());
+  }
+
+  /**
+   * Excludes generated sources from Error Prone checking, rather than only disabling warnings
+   * like {@link #getDisableWarningsInGeneratedCode() disableWarningsInGeneratedCode}; generated
+   * sources are those in the {@link #getGeneratedSourceDirectories() generatedSourceDirectories}.
+   *
+   * <p>Defaults to {@code false}.
+   */
+  @Input
+  public abstract Property<Boolean> getExcludeGeneratedSources();
+
+  /**
+   * The directories containing generated sources, to be excluded from Error Prone checking when
+   * {@link #getExcludeGeneratedSources() excludeGeneratedSources} is enabled.
+   *
+   * <p>Defaults to the task's {@link CompileOptions#getGeneratedSourceOutputDirectory()} for
+   * {@link JavaCompile} tasks; other directories can be added, e.g. for sources generated by other
+   * tasks.
+   */
+  @Internal
+  public abstract ConfigurableFileCollection getGeneratedSourceDirectories();
+
+  /**
+   * The paths of the {@link #getGeneratedSourceDirectories() generatedSourceDirectories}, relative
+   * to the project directory, as an input (as they're outputs of the compilation task).
+   */
+  @Input
+  protected List<String> getGeneratedSourceDirectoryPaths() {
+    if (!getExcludeGeneratedSources().getOrElse(false)) {
+      return Collections.emptyList();
+    }
+    List<String> paths = new ArrayList<>();
+    for (File directory : getGeneratedSourceDirectories().getFiles()) {
+      paths.add(directory.getAbsolutePath());
+    }
+    return relativePaths(paths);
+  }
+
+  /**
+   * A git revision (e.g. {@code origin/main}) to only analyze the source files that changed since
+   * then, as computed from the local git repository (against the merge base of the revision and
+   * {@code HEAD}, including uncommitted changes and untracked files).
+   *
+   * <p>This is used to compute the default value of {@link #getChangedFiles() changedFiles}, and
+   * Error Prone is disabled by default on {@link SourceSet#getCompileJavaTaskName() tasks for
+   * source sets} where no source file has changed.
+   */
+  @Internal
+  public abstract Property<String> getChangedSince();
+
+  /**
+   * The absolute paths of the only source files to analyze; when not empty, all other files are
+   * excluded from Error Prone checking, in addition to those matching {@link #getExcludedPaths()
+   * excludedPaths}.
+   *
+   * <p>Defaults to the files changed since the {@link #getChangedSince() changedSince} revision, if
+   * set, or is empty otherwise. Those have canonical paths, which {@link
+   * SourceSet#getCompileJavaTaskName() tasks for source sets} map back to the paths of their source
+   * files.
+   */
+  @Internal
+  public abstract SetProperty<String> getChangedFiles();
+
+  /**
+   * The {@link #getChangedFiles() changedFiles}, relative to the project directory when within it,
+   * as an input independent of the project location.
+   */
+  @Input
+  protected List<String> getRelativeChangedFiles() {
+    return relativePaths(getChangedFiles().get());
+  }
+
   /**
    * A map of check name to {@link CheckSeverity}, to configure which checks are enabled or
    * disabled, and their severity.
@@ -169,6 +439,35 @@ public abstract class ErrorProneOptions {
   @Input
   public abstract ListProperty<String> getErrorproneArgs();
 
+  /**
+   * The {@link #getChecks() checks} inherited from the {@link ErrorProneDefaults}, that those of
+   * the task override.
+   */
+  @Input
+  protected Map<String, CheckSeverity> getDefaultChecks() {
+    return defaultChecks == null ? Collections.emptyMap() : defaultChecks.get();
+  }
+
+  /**
+   * The {@link #getCheckOptions() checkOptions} inherited from the {@link ErrorProneDefaults}, that
+   * those of the task override.
+   */
+  @Input
+  protected Map<String, String> getDefaultCheckOptions() {
+    return defaultCheckOptions == null ? Collections.emptyMap() : defaultCheckOptions.get();
+  }
+
+  /**
+   * The {@link #getErrorproneArgs() errorproneArgs} inherited from the {@link ErrorProneDefaults},
+   * passed before those of the task.
+   */
+  @Input
+  protected List<String> getDefaultErrorproneArgs() {
+    return defaultErrorproneArgs == null
+        ? Collections.emptyList()
+        : defaultErrorproneArgs.get();
+  }
+
   /**
    * A list of {@link CommandLineArgumentProvider} for additional arguments passed to Error Prone.
    */
@@ -181,7 +480,15 @@ public abstract class ErrorProneOptions {
   @Inject
   public ErrorProneOptions(ProjectLayout projectLayout) {
     this.projectLayout = projectLayout;
+    getUseArgumentFile().convention(false);
     getEnabled().convention(false);
+    getAnalyzeSeparately().convention(false);
+    getAnalysisShards().convention(1);
+    getAnalyzeInProcess().convention(false);
+    getPreferCompilerDaemon().convention(false);
+    getChangedFiles().convention(Collections.emptySet());
+    getExcludedPathPatterns().convention(Collections.emptySet());
+    getExcludeGeneratedSources().convention(false);
     getDisableAllChecks().convention(false);
     getDisableAllWarnings().convention(false);
     getAllErrorsAsWarnings().convention(false);
@@ -190,9 +497,48 @@ public abstract class ErrorProneOptions {
     getDisableWarningsInGeneratedCode().convention(false);
     getIgnoreUnknownCheckNames().convention(false);
     getIgnoreSuppressionAnnotations().convention(false);
+    getDisableChecksForMissingLibraries().convention(false);
     getCompilingTestOnlyCode().convention(false);
   }
 
+  /**
+   * Excludes file paths from Error Prone checking.
+   *
+   * @param patterns glob patterns, relative to the project directory (unless absolute)
+   * @see #getExcludedPathPatterns()
+   */
+  public void excludePath(String... patterns) {
+    getExcludedPathPatterns().addAll(patterns);
+  }
+
+  /**
+   * Excludes all files in directories from Error Prone checking.
+   *
+   * @param directories directories, evaluated as per {@link org.gradle.api.Project#files}
+   * @see #getExcludedPathPatterns()
+   */
+  public void excludeDirectory(Object... directories) {
+    Path projectDir = projectLayout.getProjectDirectory().getAsFile().toPath();
+    getExcludedPathPatterns()
+        .addAll(
+            projectLayout
+                .files(directories)
+                .getElements()
+                .map(
+                    elements -> {
+                      List<String> patterns = new ArrayList<>(elements.size());
+                      for (FileSystemLocation element : elements) {
+                        Path directory = element.getAsFile().toPath();
+                        if (directory.startsWith(projectDir)) {
+                          directory = projectDir.relativize(directory);
+                        }
+                        patterns.add(
+                            directory.toString().replace(File.separatorChar, '/') + "/**");
+                      }
+                      return patterns;
+                    }));
+  }
+
   /**
    * Adds pairs of check name to severity.
    *
@@ -231,6 +577,19 @@ public abstract class ErrorProneOptions {
     getChecks().put(checkName, severity);
   }
 
+  /**
+   * Adds checks with their severity, all at once.
+   *
+   * <p>Equivalent to {@code checks.putAll(checks)}; prefer it to calling {@link #check(String,
+   * CheckSeverity)} for each check of a large map, as it's stored as a single entry.
+   *
+   * @see #getChecks()
+   */
+  public void checks(Map<String, CheckSeverity> checks) {
+    checks.keySet().forEach(ErrorProneOptions::validateName);
+    getChecks().putAll(checks);
+  }
+
   /**
    * Adds checks with their default severity.
    *
@@ -351,6 +710,50 @@ public abstract class ErrorProneOptions {
 
   @Override
   public String toString() {
+    return toString(getAllChecks());
+  }
+
+  /**
+   * Returns the options as a string, like {@link #toString()}, but with the given {@link
+   * #getChecks() checks} instead of the {@linkplain #getAllChecks() configured ones}.
+   */
+  String toString(Map<String, CheckSeverity> checks) {
+    return String.join(" ", toArgumentList(checks));
+  }
+
+  /** Returns the options, like {@link #toString(Map)}, as a list of separate arguments. */
+  List<String> toArgumentList(Map<String, CheckSeverity> checks) {
+    List<String> options = argumentFileReferences();
+    options.addAll(toArguments(checks, true));
+    return options;
+  }
+
+  /**
+   * Returns the options as a string, like {@link #toString()}, but without excluding the files
+   * that aren't {@linkplain #getChangedFiles() changed}, to analyze other files with the same
+   * options.
+   */
+  String toStringForAllFiles() {
+    List<String> options = argumentFileReferences();
+    options.addAll(toArguments(getAllChecks(), false));
+    return String.join(" ", options);
+  }
+
+  /**
+   * Returns the options as a string to pass to Error Prone, either inline like {@link #toString()},
+   * or as a reference to the {@linkplain #argumentFile argument file} in the given directory.
+   */
+  String toPluginArguments(File argumentFileDirectory) {
+    File argumentFile = argumentFile(argumentFileDirectory);
+    if (argumentFile == null) {
+      return toString();
+    }
+    List<String> options = argumentFileReferences();
+    options.add("@" + argumentFile.getAbsolutePath());
+    return String.join(" ", options);
+  }
+
+  private List<String> argumentFileReferences() {
     List<String> options = new ArrayList<>();
     for (File file : getArgumentFiles()) {
       String path = file.getAbsolutePath();
@@ -366,6 +769,13 @@ public abstract class ErrorProneOptions {
       }
       options.add("@" + path);
     }
+    options.forEach(this::validate);
+    return options;
+  }
+
+  private List<String> toArguments(
+      Map<String, CheckSeverity> checks, boolean excludeUnchangedFiles) {
+    List<String> options = new ArrayList<>();
     maybeAddBooleanOption(options, "-XepDisableAllChecks", getDisableAllChecks());
     maybeAddBooleanOption(options, "-XepDisableAllWarnings", getDisableAllWarnings());
     maybeAddBooleanOption(options, "-XepAllErrorsAsWarnings", getAllErrorsAsWarnings());
@@ -378,26 +788,174 @@ public abstract class ErrorProneOptions {
     maybeAddBooleanOption(
         options, "-XepIgnoreSuppressionAnnotations", getIgnoreSuppressionAnnotations());
     maybeAddBooleanOption(options, "-XepCompilingTestOnlyCode", getCompilingTestOnlyCode());
-    maybeAddStringOption(options, "-XepExcludedPaths", getExcludedPaths());
-
-    getChecks()
-        .get()
-        .forEach(
-            (name, severity) -> {
-              validateName(name);
-              options.add("-Xep:" + name + severityAsArg(severity));
-            });
-    getCheckOptions().get().forEach((name, value) -> options.add("-XepOpt:" + name + "=" + value));
+    String excludedPaths = getEffectiveExcludedPaths(excludeUnchangedFiles);
+    if (excludedPaths != null) {
+      options.add("-XepExcludedPaths:" + excludedPaths);
+    }
+
+    checks.forEach(
+        (name, severity) -> {
+          validateName(name);
+          options.add("-Xep:" + name + severityAsArg(severity));
+        });
+    Map<String, String> checkOptions = new LinkedHashMap<>(getDefaultCheckOptions());
+    checkOptions.putAll(getCheckOptions().get());
+    checkOptions.forEach((name, value) -> options.add("-XepOpt:" + name + "=" + value));
+    options.addAll(getDefaultErrorproneArgs());
     options.addAll(getErrorproneArgs().get());
     for (CommandLineArgumentProvider argumentProvider : getErrorproneArgumentProviders()) {
       argumentProvider.asArguments().forEach(options::add);
     }
 
     options.forEach(this::validate);
-    return String.join(" ", options);
+    return options;
   }
 
-  private void validateName(String checkName) {
+  /**
+   * Returns the argument file in the given directory, named after the hash of its content, if
+   * {@link #getUseArgumentFile() useArgumentFile} is enabled.
+   */
+  @Nullable File argumentFile(File directory) {
+    if (!getUseArgumentFile().getOrElse(false) || IS_WHITE_SPACE.test(directory.getPath())) {
+      return null;
+    }
+    return new File(directory, ErrorProneFindings.hash(argumentFileContent()) + ".args");
+  }
+
+  private byte[] argumentFileContent() {
+    return (String.join("\n", toArguments(getAllChecks(), true)) + "\n")
+        .getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes the {@linkplain #argumentFile argument file} to the given directory, unless it already
+   * exists (e.g. written by another task with the same options).
+   *
+   * <p>This is called from the task's own action, so that computing the arguments (or {@link
+   * #toString()}) never has side effects. The file is written atomically, so concurrent tasks never
+   * read a partial file.
+   */
+  void writeArgumentFile(File directory) {
+    File file = argumentFile(directory);
+    if (file == null || file.isFile()) {
+      return;
+    }
+    try {
+      Files.createDirectories(directory.toPath());
+      Path temporaryFile = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+      Files.write(temporaryFile, argumentFileContent());
+      Files.move(
+          temporaryFile,
+          file.toPath(),
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private @Nullable String getEffectiveExcludedPaths(boolean excludeUnchangedFiles) {
+    List<String> patterns = new ArrayList<>();
+    if (getExcludedPaths().isPresent()) {
+      patterns.add(getExcludedPaths().get());
+    }
+    PathTrie excluded = new PathTrie();
+    String projectDir = projectLayout.getProjectDirectory().getAsFile().getAbsolutePath();
+    for (String pattern : getExcludedPathPatterns().get()) {
+      if (new File(pattern).isAbsolute()) {
+        excluded.add("", pattern.replace(File.separatorChar, '/').replaceFirst("^/", ""));
+      } else {
+        excluded.add(projectDir, "/" + pattern);
+      }
+    }
+    if (getExcludeGeneratedSources().getOrElse(false)) {
+      for (File directory : getGeneratedSourceDirectories().getFiles()) {
+        excluded.add(directory.getAbsolutePath(), "/**");
+      }
+    }
+    String excludedRegex = excluded.toRegex();
+    if (excludedRegex != null) {
+      patterns.add("^" + excludedRegex);
+    }
+    PathTrie changedFiles = new PathTrie();
+    if (excludeUnchangedFiles) {
+      getChangedFiles().get().forEach(changedFiles::addPath);
+    }
+    String changedFilesRegex = changedFiles.toRegex();
+    if (changedFilesRegex != null) {
+      // Exclude everything but the changed files.
+      patterns.add("^(?!" + changedFilesRegex + "$).*");
+    }
+    if (patterns.size() <= 1) {
+      return patterns.isEmpty() ? null : patterns.get(0);
+    }
+    return patterns.stream().map(pattern -> "(?:" + pattern + ")").collect(joining("|"));
+  }
+
+  /**
+   * Makes absolute paths (or glob patterns) within the project directory relative to it, and
+   * sorts them.
+   */
+  private List<String> relativePaths(Iterable<String> paths) {
+    String projectDir =
+        (projectLayout.getProjectDirectory().getAsFile().getAbsolutePath() + "/")
+            .replace(File.separatorChar, '/');
+    List<String> relativePaths = new ArrayList<>();
+    for (String path : paths) {
+      String normalizedPath = path.replace(File.separatorChar, '/');
+      // Not using Path#relativize as glob patterns aren't valid paths on all platforms
+      relativePaths.add(
+          normalizedPath.startsWith(projectDir)
+              ? normalizedPath.substring(projectDir.length())
+              : normalizedPath);
+    }
+    Collections.sort(relativePaths);
+    return relativePaths;
+  }
+
+  /**
+   * Makes these options inherit from the given defaults.
+   *
+   * <p>Only the options that {@link ErrorProneDefaults} declares are inherited.
+   */
+  void inheritFrom(ErrorProneDefaults defaults) {
+    defaultChecks = defaults.getEffectiveChecks();
+    defaultCheckOptions = defaults.getEffectiveCheckOptions();
+    defaultErrorproneArgs = defaults.getEffectiveErrorproneArgs();
+    getPreferCompilerDaemon().convention(defaults.getPreferCompilerDaemon());
+    getDisableAllChecks().convention(defaults.getDisableAllChecks());
+    getDisableAllWarnings().convention(defaults.getDisableAllWarnings());
+    getAllErrorsAsWarnings().convention(defaults.getAllErrorsAsWarnings());
+    getAllSuggestionsAsWarnings().convention(defaults.getAllSuggestionsAsWarnings());
+    getAllDisabledChecksAsWarnings().convention(defaults.getAllDisabledChecksAsWarnings());
+    getDisableWarningsInGeneratedCode().convention(defaults.getDisableWarningsInGeneratedCode());
+    getIgnoreUnknownCheckNames().convention(defaults.getIgnoreUnknownCheckNames());
+    getIgnoreSuppressionAnnotations().convention(defaults.getIgnoreSuppressionAnnotations());
+    getDisableChecksForMissingLibraries()
+        .convention(defaults.getDisableChecksForMissingLibraries());
+  }
+
+  /**
+   * Returns the {@link #getEffectiveChecks() effective checks}, preceded by the {@link
+   * #getChecksForMissingLibraries() checks for missing libraries} turned off.
+   */
+  Map<String, CheckSeverity> getAllChecks() {
+    Map<String, CheckSeverity> checks = new LinkedHashMap<>();
+    for (String name : getChecksForMissingLibraries()) {
+      checks.put(name, CheckSeverity.OFF);
+    }
+    checks.putAll(getEffectiveChecks());
+    return checks;
+  }
+
+  /** Returns the checks, including those inherited from the {@link ErrorProneDefaults}. */
+  Map<String, CheckSeverity> getEffectiveChecks() {
+    Map<String, CheckSeverity> checks = new LinkedHashMap<>(getDefaultChecks());
+    checks.putAll(getChecks().get());
+    return checks;
+  }
+
+  static void validateName(String checkName) {
     if (checkName.contains(":")) {
       throw new InvalidUserDataException(
           String.format(
@@ -411,12 +969,6 @@ public abstract class ErrorProneOptions {
     }
   }
 
-  private void maybeAddStringOption(List<String> options, String name, Provider<String> value) {
-    if (value.isPresent()) {
-      options.add(name + ":" + value.get());
-    }
-  }
-
   private String severityAsArg(CheckSeverity severity) {
     return severity == CheckSeverity.DEFAULT ? "" : ":" + severity;
   }
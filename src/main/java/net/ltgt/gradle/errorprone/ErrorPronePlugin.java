@@ -1,14 +1,30 @@
 package net.ltgt.gradle.errorprone;
 
 import static java.util.Collections.emptyList;
+import static java.util.Objects.requireNonNull;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import javax.inject.Inject;
 import org.gradle.api.Action;
 import org.gradle.api.JavaVersion;
 import org.gradle.api.Named;
@@ -16,18 +32,39 @@ import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.ConfigurationContainer;
+import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.artifacts.dsl.DependencyHandler;
+import org.gradle.api.attributes.Attribute;
+import org.gradle.api.attributes.Bundling;
+import org.gradle.api.attributes.Category;
+import org.gradle.api.attributes.LibraryElements;
+import org.gradle.api.attributes.Usage;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.SourceDirectorySet;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.plugins.ExtensionAware;
 import org.gradle.api.plugins.JavaBasePlugin;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
+import org.gradle.api.services.BuildServiceRegistry;
+import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Nested;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.SourceSetContainer;
+import org.gradle.api.tasks.TaskProvider;
 import org.gradle.api.tasks.compile.CompileOptions;
+import org.gradle.api.tasks.compile.ForkOptions;
 import org.gradle.api.tasks.compile.JavaCompile;
+import org.gradle.build.event.BuildEventsListenerRegistry;
 import org.gradle.jvm.toolchain.JavaCompiler;
+import org.gradle.jvm.toolchain.JavaToolchainService;
 import org.gradle.process.CommandLineArgumentProvider;
 import org.gradle.util.GradleVersion;
 import org.jspecify.annotations.Nullable;
@@ -42,6 +79,31 @@ public abstract class ErrorPronePlugin implements Plugin<Project> {
 
   static final String EXTENSION_NAME = "errorprone";
 
+  static final String PLUGIN_PATH_CONFIGURATION_NAME = "errorpronePluginPath";
+  static final String SEPARATE_PLUGIN_PATH_PROPERTY = "net.ltgt.errorprone.separatePluginPath";
+  static final String MERGE_PLUGIN_PATH_PROPERTY = "net.ltgt.errorprone.mergePluginPath";
+  static final String MERGE_PLUGIN_PATH_TASK_NAME = "errorproneMergePluginPath";
+  static final String EXPORT_JDK_COMPILER_PROPERTY = "net.ltgt.errorprone.exportJdkCompiler";
+  static final String SHARE_COMPILER_DAEMON_PROPERTY = "net.ltgt.errorprone.shareCompilerDaemon";
+  static final String COMPILER_DAEMON_MAX_HEAP_SIZE_PROPERTY =
+      "net.ltgt.errorprone.compilerDaemon.maxHeapSize";
+  static final String COMPILER_DAEMON_MAX_COMPILATIONS_PROPERTY =
+      "net.ltgt.errorprone.compilerDaemon.maxCompilations";
+  static final String COMPILER_DAEMON_GENERATION_PROPERTY =
+      "net.ltgt.errorprone.compilerDaemon.generation";
+  static final String WARM_UP_ANALYSIS_PROPERTY = "net.ltgt.errorprone.warmUpAnalysis";
+  private static final String COMPILE_DIAGNOSTICS_DIRECTORY = "errorprone/compile";
+  private static final List<String> ANALYSIS_EXCLUDED_OPTIONS_WITH_VALUE =
+      Arrays.asList("-processorpath", "--processor-path", "--processor-module-path", "-processor");
+
+  private static final Attribute<String> ARTIFACT_TYPE_ATTRIBUTE =
+      Attribute.of("artifactType", String.class);
+
+  static final String ANALYZE_TASK_VERB = "errorprone";
+  static final String ANALYZE_TASK_TARGET = "analyze";
+  static final String REPORT_TASK_TARGET = "report";
+  static final String WARM_UP_TASK_TARGET = "warmUp";
+
   static final String TOO_OLD_TOOLCHAIN_ERROR_MESSAGE =
       "Must not enable ErrorProne when compiling with JDK < 11";
 
@@ -61,6 +123,9 @@ public abstract class ErrorPronePlugin implements Plugin<Project> {
               "--add-opens=jdk.compiler/com.sun.tools.javac.code=ALL-UNNAMED",
               "--add-opens=jdk.compiler/com.sun.tools.javac.comp=ALL-UNNAMED"));
 
+  @Inject
+  protected abstract BuildEventsListenerRegistry getBuildEventsListenerRegistry();
+
   @Override
   public void apply(Project project) {
     if (GradleVersion.current().compareTo(GradleVersion.version("7.1")) < 0) {
@@ -68,12 +133,38 @@ public abstract class ErrorPronePlugin implements Plugin<Project> {
     }
 
     Provider<Configuration> errorproneConfiguration = registerConfiguration(project);
-    configureJavaCompileTasks(project);
+    FileCollection pluginPath = registerPluginPath(project, errorproneConfiguration);
+    boolean mergePluginPath = isGradlePropertySet(project, MERGE_PLUGIN_PATH_PROPERTY);
+    // Merging implies a separate plugin path
+    boolean separatePluginPath =
+        mergePluginPath || isGradlePropertySet(project, SEPARATE_PLUGIN_PATH_PROPERTY);
+    FileCollection processorPluginPath =
+        mergePluginPath ? registerMergePluginPath(project, pluginPath) : pluginPath;
+    ErrorProneDefaults defaults = createDefaultsExtension(project);
+    FileCollection sharedClasspath = sharedClasspath(project, defaults);
+    ChangedFiles changedFiles =
+        new ChangedFiles(project.getProviders(), project.getLayout().getProjectDirectory());
+    registerDiagnosticsReplayService(project);
+    configureJavaCompileTasks(
+        project,
+        defaults,
+        changedFiles,
+        isGradlePropertySet(project, EXPORT_JDK_COMPILER_PROPERTY),
+        isGradlePropertySet(project, SHARE_COMPILER_DAEMON_PROPERTY)
+            ? registerCompilerDaemonService(project)
+            : null);
     project
-        .getPlugins()
-        .withType(
-            JavaBasePlugin.class,
-            unused -> configureForJavaPlugin(project, errorproneConfiguration));
+        .getPluginManager()
+        .withPlugin(
+            "java-base",
+            unused ->
+                configureForJavaPlugin(
+                    project,
+                    errorproneConfiguration,
+                    separatePluginPath ? processorPluginPath : null,
+                    sharedClasspath,
+                    changedFiles,
+                    isGradlePropertySet(project, WARM_UP_ANALYSIS_PROPERTY)));
   }
 
   @SuppressWarnings("deprecation") // Configuration.setVisible for backwards-compatibility
@@ -89,73 +180,544 @@ public abstract class ErrorPronePlugin implements Plugin<Project> {
               configuration.setCanBeConsumed(false);
               configuration.setCanBeResolved(false);
 
-              Map<String, String> exclude = new HashMap<>(2);
-              exclude.put("group", "com.google.errorprone");
-              exclude.put("module", "javac");
-              configuration.exclude(exclude);
+              excludeJavac(configuration);
+            });
+  }
+
+  private static void excludeJavac(Configuration configuration) {
+    Map<String, String> exclude = new HashMap<>(2);
+    exclude.put("group", "com.google.errorprone");
+    exclude.put("module", "javac");
+    configuration.exclude(exclude);
+  }
+
+  /**
+   * Registers a resolvable configuration for the {@code errorprone} dependencies, and returns its
+   * files with annotation processor declarations stripped, so that they can be put on the processor
+   * path without being seen as (non-incremental) annotation processors by Gradle.
+   */
+  @SuppressWarnings("deprecation") // Configuration.setVisible for backwards-compatibility
+  private FileCollection registerPluginPath(
+      Project project, Provider<Configuration> errorproneConfiguration) {
+    Provider<Configuration> pluginPathConfiguration =
+        project
+            .getConfigurations()
+            .register(
+                PLUGIN_PATH_CONFIGURATION_NAME,
+                configuration -> {
+                  configuration.setDescription(
+                      "Error Prone plugin path, resolved from the errorprone configuration");
+                  configuration.setVisible(false);
+                  configuration.setCanBeConsumed(false);
+                  configuration.setCanBeResolved(true);
+                  configuration.extendsFrom(errorproneConfiguration.get());
+                  configurePluginPathAttributes(configuration, project.getObjects());
+                });
+    project
+        .getDependencies()
+        .registerTransform(
+            StripAnnotationProcessors.class,
+            spec -> {
+              spec.getFrom().attribute(ARTIFACT_TYPE_ATTRIBUTE, "jar");
+              spec.getTo()
+                  .attribute(ARTIFACT_TYPE_ATTRIBUTE, StripAnnotationProcessors.ARTIFACT_TYPE);
+            });
+    return project.files(
+        (Callable<FileCollection>)
+            () -> withoutAnnotationProcessors(pluginPathConfiguration.get()));
+  }
+
+  private static void configurePluginPathAttributes(
+      Configuration configuration, ObjectFactory objects) {
+    configuration.attributes(
+        attributes -> {
+          attributes.attribute(
+              Usage.USAGE_ATTRIBUTE, objects.named(Usage.class, Usage.JAVA_RUNTIME));
+          attributes.attribute(
+              Category.CATEGORY_ATTRIBUTE, objects.named(Category.class, Category.LIBRARY));
+          attributes.attribute(
+              LibraryElements.LIBRARY_ELEMENTS_ATTRIBUTE,
+              objects.named(LibraryElements.class, LibraryElements.JAR));
+          attributes.attribute(
+              Bundling.BUNDLING_ATTRIBUTE, objects.named(Bundling.class, Bundling.EXTERNAL));
+        });
+  }
+
+  private static FileCollection withoutAnnotationProcessors(Configuration configuration) {
+    return configuration
+        .getIncoming()
+        .artifactView(
+            view ->
+                view.attributes(
+                    attributes ->
+                        attributes.attribute(
+                            ARTIFACT_TYPE_ATTRIBUTE, StripAnnotationProcessors.ARTIFACT_TYPE)))
+        .getFiles();
+  }
+
+  /**
+   * Returns the files of the {@link ErrorProneDefaults#getSharedDependencies() sharedDependencies},
+   * resolved through a detached configuration, only created (along with the {@link
+   * ErrorProneClasspathService}) when there are such dependencies. Their artifacts are only
+   * resolved if no other project already resolved the same components.
+   */
+  private static FileCollection sharedClasspath(Project project, ErrorProneDefaults defaults) {
+    ConfigurationContainer configurations = project.getConfigurations();
+    DependencyHandler dependencyHandler = project.getDependencies();
+    ObjectFactory objects = project.getObjects();
+    BuildServiceRegistry sharedServices = project.getGradle().getSharedServices();
+    return project.files(
+        (Callable<Set<File>>)
+            () -> {
+              List<String> dependencies = defaults.getSharedDependencies().getOrElse(emptyList());
+              if (dependencies.isEmpty()) {
+                return Collections.emptySet();
+              }
+              Dependency[] sharedDependencies = new Dependency[dependencies.size()];
+              for (int i = 0; i < sharedDependencies.length; i++) {
+                sharedDependencies[i] = dependencyHandler.create(dependencies.get(i));
+              }
+              Configuration configuration =
+                  configurations.detachedConfiguration(sharedDependencies);
+              excludeJavac(configuration);
+              configurePluginPathAttributes(configuration, objects);
+              return sharedServices
+                  .registerIfAbsent(
+                      ErrorProneClasspathService.NAME, ErrorProneClasspathService.class, spec -> {})
+                  .get()
+                  .getFiles(configuration, withoutAnnotationProcessors(configuration));
+            });
+  }
+
+  private FileCollection registerMergePluginPath(Project project, FileCollection pluginPath) {
+    TaskProvider<ErrorProneMergePluginPath> mergeTask =
+        project
+            .getTasks()
+            .register(
+                MERGE_PLUGIN_PATH_TASK_NAME,
+                ErrorProneMergePluginPath.class,
+                task -> {
+                  task.setDescription("Merges the Error Prone plugin path into a single JAR.");
+                  task.getPluginPath().from(pluginPath);
+                  task.getMergedJar()
+                      .convention(
+                          project
+                              .getLayout()
+                              .getBuildDirectory()
+                              .file("errorprone/plugin-path.jar"));
+                });
+    return project.files(mergeTask.flatMap(ErrorProneMergePluginPath::getMergedJar));
+  }
+
+  private void registerDiagnosticsReplayService(Project project) {
+    getBuildEventsListenerRegistry()
+        .onTaskCompletion(
+            project
+                .getGradle()
+                .getSharedServices()
+                .registerIfAbsent(
+                    ErrorProneDiagnosticsReplayService.NAME + project.getPath(),
+                    ErrorProneDiagnosticsReplayService.class,
+                    spec -> {
+                      spec.getParameters().getProjectPath().set(project.getPath());
+                      spec.getParameters()
+                          .getProjectDirectory()
+                          .set(project.getLayout().getProjectDirectory());
+                      spec.getParameters()
+                          .getDiagnosticsDirectory()
+                          .set(
+                              project
+                                  .getLayout()
+                                  .getBuildDirectory()
+                                  .dir(COMPILE_DIAGNOSTICS_DIRECTORY));
+                    }));
+  }
+
+  private static Provider<ErrorProneCompilerDaemonService> registerCompilerDaemonService(
+      Project project) {
+    ProviderFactory providers = project.getProviders();
+    return project
+        .getGradle()
+        .getSharedServices()
+        .registerIfAbsent(
+            ErrorProneCompilerDaemonService.NAME,
+            ErrorProneCompilerDaemonService.class,
+            spec -> {
+              spec.getParameters()
+                  .getMaxHeapSize()
+                  .set(providers.gradleProperty(COMPILER_DAEMON_MAX_HEAP_SIZE_PROPERTY));
+              spec.getParameters()
+                  .getMaxCompilations()
+                  .set(
+                      providers
+                          .gradleProperty(COMPILER_DAEMON_MAX_COMPILATIONS_PROPERTY)
+                          .map(Integer::parseInt));
             });
   }
 
-  private void configureJavaCompileTasks(Project project) {
+  private static boolean isGradlePropertySet(Project project, String propertyName) {
+    return project
+        .getProviders()
+        .gradleProperty(propertyName)
+        .map(Boolean::parseBoolean)
+        .getOrElse(false);
+  }
+
+  private ErrorProneDefaults createDefaultsExtension(Project project) {
+    ErrorProneDefaults defaults =
+        project.getExtensions().create(ErrorProneDefaults.NAME, ErrorProneDefaults.class);
+    // Registered by the settings plugin
+    ErrorProneDefaults settingsDefaults =
+        project.getGradle().getExtensions().findByType(ErrorProneDefaults.class);
+    if (settingsDefaults != null) {
+      defaults.inheritFrom(settingsDefaults);
+    }
+    return defaults;
+  }
+
+  private void configureJavaCompileTasks(
+      Project project,
+      ErrorProneDefaults defaults,
+      ChangedFiles changedFiles,
+      boolean exportJdkCompiler,
+      @Nullable Provider<ErrorProneCompilerDaemonService> compilerDaemonService) {
     project
         .getTasks()
         .withType(JavaCompile.class)
-        .configureEach(this::configureJavaCompileTaskDefaults);
+        .configureEach(
+            task ->
+                configureJavaCompileTaskDefaults(
+                    project,
+                    defaults,
+                    changedFiles,
+                    exportJdkCompiler,
+                    compilerDaemonService,
+                    task));
   }
 
-  private void configureJavaCompileTaskDefaults(JavaCompile task) {
+  private void configureJavaCompileTaskDefaults(
+      Project project,
+      ErrorProneDefaults defaults,
+      ChangedFiles changedFiles,
+      boolean exportJdkCompiler,
+      @Nullable Provider<ErrorProneCompilerDaemonService> compilerDaemonService,
+      JavaCompile task) {
     ErrorProneOptions errorproneOptions =
         ((ExtensionAware) task.getOptions())
             .getExtensions()
             .create(EXTENSION_NAME, ErrorProneOptions.class);
+    errorproneOptions.inheritFrom(defaults);
+    errorproneOptions
+        .getChangedFiles()
+        .convention(changedFiles.since(errorproneOptions.getChangedSince()));
+    errorproneOptions
+        .getGeneratedSourceDirectories()
+        .from(task.getOptions().getGeneratedSourceOutputDirectory());
+    errorproneOptions.getLibraryClasspath().from((Callable<FileCollection>) task::getClasspath);
 
+    // Shared by the tasks of the project, as the argument files are named after their content
+    Provider<Directory> argumentFileDirectory =
+        project.getLayout().getBuildDirectory().dir("tmp/errorprone");
     task.getOptions()
         .getCompilerArgumentProviders()
-        .add(new ErrorProneCompilerArgumentProvider(errorproneOptions));
+        .add(new ErrorProneCompilerArgumentProvider(errorproneOptions, argumentFileDirectory));
 
     ErrorProneJvmArgumentProvider jvmArgumentProvider =
-        new ErrorProneJvmArgumentProvider(task, errorproneOptions);
+        new ErrorProneJvmArgumentProvider(
+            errorproneOptions, compilerVersion(task, project.getObjects(), project.getProviders()));
     task.getOptions().getForkOptions().getJvmArgumentProviders().add(jvmArgumentProvider);
+    if (compilerDaemonService != null) {
+      task.usesService(compilerDaemonService);
+    }
+    // At configuration time, so the task's inputs reflect the fork options actually used
+    project
+        .getGradle()
+        .getTaskGraph()
+        .whenReady(
+            graph -> {
+              if (graph.hasTask(task) && isEnabledInCompileTask(errorproneOptions)) {
+                configureForkOptions(
+                    task, errorproneOptions, jvmArgumentProvider, compilerDaemonService);
+              }
+            });
+    Provider<Directory> diagnosticsDirectory =
+        project
+            .getLayout()
+            .getBuildDirectory()
+            .dir(COMPILE_DIAGNOSTICS_DIRECTORY + "/" + task.getName());
+    task.getOutputs()
+        .dir(diagnosticsDirectory)
+        .withPropertyName("errorproneDiagnostics")
+        .optional();
+    List<Action<Task>> recordDiagnostics =
+        ErrorProneCompileDiagnostics.actions(
+            errorproneOptions,
+            diagnosticsDirectory,
+            project.getLayout().getProjectDirectory().getAsFile());
+    task.doFirst("Record errorprone diagnostics", recordDiagnostics.get(0));
+    task.doLast("Record errorprone diagnostics", recordDiagnostics.get(1));
     task.doFirst(
         "Configure forking for errorprone",
-        new ConfigureForkingTaskAction(errorproneOptions, jvmArgumentProvider, task.getOptions()));
+        new ConfigureForkingTaskAction(
+            errorproneOptions,
+            jvmArgumentProvider,
+            argumentFileDirectory,
+            task.getOptions(),
+            exportJdkCompiler,
+            compilerDaemonService));
   }
 
   private void configureForJavaPlugin(
-      Project project, Provider<Configuration> errorproneConfiguration) {
+      Project project,
+      Provider<Configuration> errorproneConfiguration,
+      @Nullable FileCollection pluginPath,
+      FileCollection sharedClasspath,
+      ChangedFiles changedFiles,
+      boolean warmUpAnalysis) {
     project
         .getExtensions()
         .getByType(SourceSetContainer.class)
         .configureEach(
-            sourceSet -> configureForSourceSet(project, errorproneConfiguration, sourceSet));
+            sourceSet ->
+                configureForSourceSet(
+                    project,
+                    errorproneConfiguration,
+                    pluginPath,
+                    sharedClasspath,
+                    changedFiles,
+                    sourceSet,
+                    warmUpAnalysis));
   }
 
   private void configureForSourceSet(
-      Project project, Provider<Configuration> errorproneConfiguration, SourceSet sourceSet) {
-    project
-        .getConfigurations()
-        .named(
-            sourceSet.getAnnotationProcessorConfigurationName(),
-            configuration -> configuration.extendsFrom(errorproneConfiguration.get()));
+      Project project,
+      Provider<Configuration> errorproneConfiguration,
+      @Nullable FileCollection pluginPath,
+      FileCollection sharedClasspath,
+      ChangedFiles changedFiles,
+      SourceSet sourceSet,
+      boolean warmUpAnalysis) {
+    if (pluginPath == null) {
+      project
+          .getConfigurations()
+          .named(
+              sourceSet.getAnnotationProcessorConfigurationName(),
+              configuration -> {
+                // Rather than extendsFrom, that needs the errorprone configuration to be realized
+                // right away, only copy its dependencies when about to resolve this configuration.
+                configuration.withDependencies(
+                    dependencies -> {
+                      Configuration errorprone = errorproneConfiguration.get();
+                      dependencies.addAll(errorprone.getAllDependencies());
+                      configuration
+                          .getDependencyConstraints()
+                          .addAll(errorprone.getAllDependencyConstraints());
+                    });
+                excludeJavac(configuration);
+              });
+      sourceSet.setAnnotationProcessorPath(
+          sourceSet.getAnnotationProcessorPath().plus(sharedClasspath));
+    } else {
+      // Error Prone comes first, so its dependencies win over those of the annotation processors
+      sourceSet.setAnnotationProcessorPath(
+          pluginPath.plus(sourceSet.getAnnotationProcessorPath()).plus(sharedClasspath));
+    }
+    TaskProvider<JavaCompile> compileTask =
+        project
+            .getTasks()
+            .named(
+                sourceSet.getCompileJavaTaskName(),
+                JavaCompile.class,
+                task -> configureTaskForSourceSet(changedFiles, sourceSet, task));
+    TaskProvider<ErrorProneAnalyze> analyzeTask =
+        project
+            .getTasks()
+            .register(
+                sourceSet.getTaskName(ANALYZE_TASK_VERB, ANALYZE_TASK_TARGET),
+                ErrorProneAnalyze.class,
+                task -> configureAnalyzeTask(project, sourceSet, compileTask.get(), task));
+    TaskProvider<ErrorProneReport> reportTask =
+        project
+            .getTasks()
+            .register(
+                sourceSet.getTaskName(ANALYZE_TASK_VERB, REPORT_TASK_TARGET),
+                ErrorProneReport.class,
+                task -> {
+                  task.setDescription("Reports Error Prone diagnostics for " + sourceSet + ".");
+                  task.onlyIf(
+                      new IsEnabledInAnalyzeTask(
+                          ((ExtensionAware) compileTask.get().getOptions())
+                              .getExtensions()
+                              .getByType(ErrorProneOptions.class)));
+                  task.getDiagnostics()
+                      .from(analyzeTask.flatMap(ErrorProneAnalyze::getDiagnosticsFile));
+                });
+    analyzeTask.configure(task -> task.finalizedBy(reportTask));
+    if (warmUpAnalysis) {
+      TaskProvider<ErrorProneWarmUp> warmUpTask =
+          project
+              .getTasks()
+              .register(
+                  sourceSet.getTaskName(ANALYZE_TASK_VERB, WARM_UP_TASK_TARGET),
+                  ErrorProneWarmUp.class,
+                  task ->
+                      configureWarmUpTask(
+                          project, sourceSet, compileTask.get(), analyzeTask, task));
+      // The compilation doesn't depend on it, so it can run meanwhile
+      analyzeTask.configure(task -> task.dependsOn(warmUpTask));
+    }
+    // The tasks are always registered, but only part of the check when the analysis is enabled
+    Provider<List<TaskProvider<ErrorProneAnalyze>>> checkDependencies =
+        project
+            .getProviders()
+            .provider(
+                () ->
+                    isEnabledInAnalyzeTask(
+                            ((ExtensionAware) compileTask.get().getOptions())
+                                .getExtensions()
+                                .getByType(ErrorProneOptions.class))
+                        ? Collections.singletonList(analyzeTask)
+                        : emptyList());
     project
         .getTasks()
-        .named(
-            sourceSet.getCompileJavaTaskName(),
-            JavaCompile.class,
-            task -> configureTaskForSourceSet(sourceSet, task));
+        .named(JavaBasePlugin.CHECK_TASK_NAME, task -> task.dependsOn(checkDependencies));
+  }
+
+  private void configureWarmUpTask(
+      Project project,
+      SourceSet sourceSet,
+      JavaCompile compileTask,
+      TaskProvider<ErrorProneAnalyze> analyzeTask,
+      ErrorProneWarmUp task) {
+    task.setDescription("Warms up the Error Prone worker process for " + sourceSet + ".");
+    task.setErrorproneOptions(
+        ((ExtensionAware) compileTask.getOptions())
+            .getExtensions()
+            .getByType(ErrorProneOptions.class));
+    task.getErrorproneClasspath().from(sourceSet.getAnnotationProcessorPath());
+    task.getJavaLauncher().convention(analyzeTask.flatMap(ErrorProneAnalyze::getJavaLauncher));
+    task.getRelease().convention(analyzeTask.flatMap(ErrorProneAnalyze::getRelease));
+    task.getMaxHeapSize().convention(analyzeTask.flatMap(ErrorProneAnalyze::getMaxHeapSize));
+    Provider<ErrorProneWarmUpService> warmUpService =
+        project
+            .getGradle()
+            .getSharedServices()
+            .registerIfAbsent(
+                ErrorProneWarmUpService.NAME, ErrorProneWarmUpService.class, spec -> {});
+    task.usesService(warmUpService);
+    task.setWarmUpService(warmUpService);
+  }
+
+  private void configureAnalyzeTask(
+      Project project, SourceSet sourceSet, JavaCompile compileTask, ErrorProneAnalyze task) {
+    ErrorProneOptions errorproneOptions =
+        ((ExtensionAware) compileTask.getOptions())
+            .getExtensions()
+            .getByType(ErrorProneOptions.class);
+    ProviderFactory providers = project.getProviders();
+
+    task.setDescription("Runs Error Prone on " + sourceSet + ".");
+    // Only listed along with the verification tasks when it's part of the check
+    if (isEnabledInAnalyzeTask(errorproneOptions)) {
+      task.setGroup(JavaBasePlugin.VERIFICATION_GROUP);
+    }
+    task.setErrorproneOptions(errorproneOptions);
+    task.source(sourceSet.getJava(), compileTask.getOptions().getGeneratedSourceOutputDirectory());
+    task.include("**/*.java");
+    task.getClasspath()
+        .from(sourceSet.getCompileClasspath(), compileTask.getDestinationDirectory());
+    task.getErrorproneClasspath().from(sourceSet.getAnnotationProcessorPath());
+    task.getJavaLauncher()
+        .convention(
+            project
+                .getExtensions()
+                .getByType(JavaToolchainService.class)
+                .launcherFor(
+                    spec ->
+                        spec.getLanguageVersion()
+                            .set(
+                                compileTask
+                                    .getJavaCompiler()
+                                    .map(
+                                        javaCompiler ->
+                                            javaCompiler.getMetadata().getLanguageVersion()))));
+    task.getRelease().convention(compileTask.getOptions().getRelease());
+    task.getSourceCompatibility()
+        .convention(providers.provider(compileTask::getSourceCompatibility));
+    task.getTargetCompatibility()
+        .convention(providers.provider(compileTask::getTargetCompatibility));
+    task.getEncoding().convention(providers.provider(() -> compileTask.getOptions().getEncoding()));
+    task.getCompilerArgs()
+        .convention(
+            providers.provider(
+                () -> analysisCompilerArgs(compileTask.getOptions().getCompilerArgs())));
+    task.getMaxHeapSize()
+        .convention(
+            providers.provider(
+                () -> compileTask.getOptions().getForkOptions().getMemoryMaximumSize()));
+    Provider<ErrorProneMetaspaceService> metaspaceService =
+        project
+            .getGradle()
+            .getSharedServices()
+            .registerIfAbsent(
+                ErrorProneMetaspaceService.NAME, ErrorProneMetaspaceService.class, spec -> {});
+    task.usesService(metaspaceService);
+    task.setMetaspaceService(metaspaceService);
+    task.getFindingsDirectory()
+        .convention(
+            project
+                .getLayout()
+                .getBuildDirectory()
+                .dir("errorprone/" + sourceSet.getName() + "/findings"));
+    task.getDiagnosticsFile()
+        .convention(
+            project
+                .getLayout()
+                .getBuildDirectory()
+                .file("errorprone/" + sourceSet.getName() + "/diagnostics.bin"));
+    task.getReportFile()
+        .convention(
+            project
+                .getLayout()
+                .getBuildDirectory()
+                .file("reports/errorprone/" + sourceSet.getName() + ".txt"));
   }
 
-  private void configureTaskForSourceSet(SourceSet sourceSet, JavaCompile task) {
+  private void configureTaskForSourceSet(
+      ChangedFiles changedFiles, SourceSet sourceSet, JavaCompile task) {
     ((ExtensionAware) task.getOptions())
         .getExtensions()
         .configure(
             ErrorProneOptions.class,
             errorproneOptions ->
-                configureSourceSetCompileJavaTask(sourceSet, task, errorproneOptions));
+                configureSourceSetCompileJavaTask(
+                    changedFiles, sourceSet, task, errorproneOptions));
   }
 
   private void configureSourceSetCompileJavaTask(
-      SourceSet sourceSet, JavaCompile task, ErrorProneOptions errorproneOptions) {
+      ChangedFiles changedFiles,
+      SourceSet sourceSet,
+      JavaCompile task,
+      ErrorProneOptions errorproneOptions) {
+    // Only keep the changed files of this source set, and disable Error Prone if there's none.
+    // Changed files have canonical paths, but javac is given the source files' absolute paths.
+    SourceDirectorySet sources = sourceSet.getJava();
+    Provider<Set<String>> sourceSetChangedFiles =
+        changedFiles
+            .since(errorproneOptions.getChangedSince())
+            .map(
+                files -> {
+                  Set<String> changedSourceFiles = new TreeSet<>();
+                  for (File file : sources.getFiles()) {
+                    if (files.contains(GitChangedFiles.canonicalPath(file))) {
+                      changedSourceFiles.add(file.getAbsolutePath());
+                    }
+                  }
+                  return changedSourceFiles;
+                });
+    errorproneOptions
+        .getChangedFiles()
+        .convention(sourceSetChangedFiles.orElse(Collections.emptySet()));
     errorproneOptions
         .getEnabled()
         .convention(
@@ -163,18 +725,78 @@ public abstract class ErrorPronePlugin implements Plugin<Project> {
                 .map(
                     javaCompile ->
                         javaCompile.getMetadata().getLanguageVersion().canCompileOrRun(11))
-                .orElse(true));
+                .orElse(true)
+                .zip(
+                    sourceSetChangedFiles.map(files -> !files.isEmpty()).orElse(true),
+                    (canRun, hasChangedFiles) -> canRun && hasChangedFiles));
     errorproneOptions
         .getCompilingTestOnlyCode()
         .convention(sourceSet.getName().matches(TEST_SOURCE_SET_NAME_REGEX));
   }
 
+  static boolean isEnabledInAnalyzeTask(ErrorProneOptions errorproneOptions) {
+    return errorproneOptions.getEnabled().getOrElse(false)
+        && errorproneOptions.getAnalyzeSeparately().getOrElse(false)
+        && !errorproneOptions.getAnalyzedBy().isPresent();
+  }
+
+  static boolean isEnabledInCompileTask(ErrorProneOptions errorproneOptions) {
+    return errorproneOptions.getEnabled().getOrElse(false)
+        && !errorproneOptions.getAnalyzeSeparately().getOrElse(false)
+        && !errorproneOptions.getAnalyzedBy().isPresent();
+  }
+
+  /**
+   * Returns the compiler arguments of a compilation task that apply to its separate analysis,
+   * without those for annotation processing (that doesn't run during the analysis, whose processor
+   * path is Error Prone's), for javac's lint warnings (already reported by the compilation), or to
+   * fail on warnings.
+   */
+  static List<String> analysisCompilerArgs(List<String> compilerArgs) {
+    List<String> args = new ArrayList<>(compilerArgs.size());
+    for (Iterator<String> it = compilerArgs.iterator(); it.hasNext(); ) {
+      String arg = it.next();
+      if (ANALYSIS_EXCLUDED_OPTIONS_WITH_VALUE.contains(arg)) {
+        // Skip the value too
+        if (it.hasNext()) {
+          it.next();
+        }
+        continue;
+      }
+      if (arg.equals("-Werror")
+          || arg.equals("-Xlint")
+          || arg.startsWith("-Xlint:")
+          || arg.startsWith("-proc:")
+          || ANALYSIS_EXCLUDED_OPTIONS_WITH_VALUE.stream()
+              .anyMatch(option -> arg.startsWith(option + "="))) {
+        continue;
+      }
+      args.add(arg);
+    }
+    return args;
+  }
+
+  static List<String> compilerArguments(String errorproneArguments) {
+    return Arrays.asList(
+        "-Xplugin:ErrorProne " + errorproneArguments,
+        "-XDcompilePolicy=simple",
+        "--should-stop=ifError=FLOW",
+        // Error Prone 2.46.0 requires it for JDK 21 (and it helps NullAway too even with previous
+        // Error Prone versions)
+        // It's only useful for JDK 21, but safe to pass to any version.
+        // See https://github.com/google/error-prone/issues/5426
+        "-XDaddTypeAnnotationsToSymbol=true");
+  }
+
   private static class ErrorProneCompilerArgumentProvider
       implements CommandLineArgumentProvider, Named {
     private final ErrorProneOptions errorproneOptions;
+    private final Provider<Directory> argumentFileDirectory;
 
-    ErrorProneCompilerArgumentProvider(ErrorProneOptions errorproneOptions) {
+    ErrorProneCompilerArgumentProvider(
+        ErrorProneOptions errorproneOptions, Provider<Directory> argumentFileDirectory) {
       this.errorproneOptions = errorproneOptions;
+      this.argumentFileDirectory = argumentFileDirectory;
     }
 
     @Internal
@@ -187,33 +809,57 @@ public abstract class ErrorPronePlugin implements Plugin<Project> {
     @Nested
     @Optional
     @Nullable ErrorProneOptions getErrorproneOptions() {
-      return errorproneOptions.getEnabled().getOrElse(false) ? errorproneOptions : null;
+      return isEnabledInCompileTask(errorproneOptions) ? errorproneOptions : null;
     }
 
     @Override
     public Iterable<String> asArguments() {
-      if (!errorproneOptions.getEnabled().getOrElse(false)) {
+      if (!isEnabledInCompileTask(errorproneOptions)) {
         return emptyList();
       }
-      return Arrays.asList(
-          "-Xplugin:ErrorProne " + errorproneOptions,
-          "-XDcompilePolicy=simple",
-          "--should-stop=ifError=FLOW",
-          // Error Prone 2.46.0 requires it for JDK 21 (and it helps NullAway too even with previous
-          // Error Prone versions)
-          // It's only useful for JDK 21, but safe to pass to any version.
-          // See https://github.com/google/error-prone/issues/5426
-          "-XDaddTypeAnnotationsToSymbol=true");
+      return compilerArguments(
+          errorproneOptions.toPluginArguments(argumentFileDirectory.get().getAsFile()));
     }
   }
 
+  /**
+   * Returns the version of the compiler used by the task, or an absent value if it can't be
+   * determined (i.e. when forking with a custom {@code javaHome} or {@code executable}).
+   *
+   * <p>The value is computed only once per task, on first read, as it's read several times during
+   * task execution (as an input, for JVM arguments, and to decide whether to fork). It isn't shared
+   * between tasks using the same toolchain: the task's toolchain spec can't be read back without
+   * resolving it, and Gradle already caches the toolchain matching a spec for the whole build.
+   */
+  static Provider<JavaVersion> compilerVersion(
+      JavaCompile task, ObjectFactory objects, ProviderFactory providers) {
+    CompileOptions options = task.getOptions();
+    Property<JavaVersion> compilerVersion = objects.property(JavaVersion.class);
+    compilerVersion.set(
+        task.getJavaCompiler()
+            .map(
+                javaCompiler ->
+                    JavaVersion.toVersion(javaCompiler.getMetadata().getLanguageVersion().asInt()))
+            .orElse(
+                providers.provider(() -> isCommandLine(options) ? null : JavaVersion.current())));
+    compilerVersion.finalizeValueOnRead();
+    return compilerVersion;
+  }
+
+  private static boolean isCommandLine(CompileOptions options) {
+    return options.isFork()
+        && (options.getForkOptions().getJavaHome() != null
+            || options.getForkOptions().getExecutable() != null);
+  }
+
   private static class ErrorProneJvmArgumentProvider implements CommandLineArgumentProvider, Named {
-    private final JavaCompile task;
     private final ErrorProneOptions errorproneOptions;
+    private final Provider<JavaVersion> compilerVersion;
 
-    ErrorProneJvmArgumentProvider(JavaCompile task, ErrorProneOptions errorproneOptions) {
-      this.task = task;
+    ErrorProneJvmArgumentProvider(
+        ErrorProneOptions errorproneOptions, Provider<JavaVersion> compilerVersion) {
       this.errorproneOptions = errorproneOptions;
+      this.compilerVersion = compilerVersion;
     }
 
     @Internal
@@ -225,22 +871,12 @@ public abstract class ErrorPronePlugin implements Plugin<Project> {
     @Input
     @Optional
     @Nullable JavaVersion getCompilerVersion() {
-      JavaCompiler javaCompiler = task.getJavaCompiler().getOrNull();
-      if (javaCompiler == null) {
-        return isCommandLine(task.getOptions()) ? null : JavaVersion.current();
-      }
-      return JavaVersion.toVersion(javaCompiler.getMetadata().getLanguageVersion().asInt());
-    }
-
-    private boolean isCommandLine(CompileOptions options) {
-      return options.isFork()
-          && (options.getForkOptions().getJavaHome() != null
-              || options.getForkOptions().getExecutable() != null);
+      return compilerVersion.getOrNull();
     }
 
     @Override
     public Iterable<String> asArguments() {
-      if (!errorproneOptions.getEnabled().getOrElse(false)) {
+      if (!isEnabledInCompileTask(errorproneOptions)) {
         return emptyList();
       }
       JavaVersion compilerVersion = getCompilerVersion();
@@ -251,25 +887,85 @@ public abstract class ErrorPronePlugin implements Plugin<Project> {
     }
   }
 
+  /**
+   * The files changed since git revisions, computed (by running {@code git}) once per project and
+   * revision, then shared by all the compilation tasks of the project, that filter them.
+   *
+   * <p>This can't be shared across projects without breaking project isolation.
+   */
+  private static class ChangedFiles {
+    private final ProviderFactory providers;
+    private final Directory projectDirectory;
+    private final Map<String, Provider<Set<String>>> byRevision = new ConcurrentHashMap<>();
+
+    ChangedFiles(ProviderFactory providers, Directory projectDirectory) {
+      this.providers = providers;
+      this.projectDirectory = projectDirectory;
+    }
+
+    Provider<Set<String>> since(Provider<String> revision) {
+      return revision.flatMap(
+          value ->
+              byRevision.computeIfAbsent(
+                  value,
+                  unused ->
+                      providers.of(
+                          GitChangedFiles.class,
+                          spec -> {
+                            spec.getParameters().getRevision().set(value);
+                            spec.getParameters().getDirectory().set(projectDirectory);
+                          })));
+    }
+  }
+
+  private static class IsEnabledInAnalyzeTask implements Spec<Task> {
+    private final ErrorProneOptions errorproneOptions;
+
+    IsEnabledInAnalyzeTask(ErrorProneOptions errorproneOptions) {
+      this.errorproneOptions = errorproneOptions;
+    }
+
+    @Override
+    public boolean isSatisfiedBy(Task unused) {
+      return isEnabledInAnalyzeTask(errorproneOptions);
+    }
+  }
+
   private static class ConfigureForkingTaskAction implements Action<Task> {
     private final ErrorProneOptions errorproneOptions;
     private final ErrorProneJvmArgumentProvider jvmArgumentProvider;
+    private final Provider<Directory> argumentFileDirectory;
     private final CompileOptions options;
+    private final boolean exportJdkCompiler;
+    private final @Nullable Provider<ErrorProneCompilerDaemonService> compilerDaemonService;
 
     ConfigureForkingTaskAction(
         ErrorProneOptions errorproneOptions,
         ErrorProneJvmArgumentProvider jvmArgumentProvider,
-        CompileOptions options) {
+        Provider<Directory> argumentFileDirectory,
+        CompileOptions options,
+        boolean exportJdkCompiler,
+        @Nullable Provider<ErrorProneCompilerDaemonService> compilerDaemonService) {
       this.errorproneOptions = errorproneOptions;
       this.jvmArgumentProvider = jvmArgumentProvider;
+      this.argumentFileDirectory = argumentFileDirectory;
       this.options = options;
+      this.exportJdkCompiler = exportJdkCompiler;
+      this.compilerDaemonService = compilerDaemonService;
     }
 
     @Override
-    public void execute(Task unused) {
-      if (!errorproneOptions.getEnabled().getOrElse(false)) {
+    public void execute(Task task) {
+      if (errorproneOptions.getAnalyzedBy().isPresent()) {
+        task.getLogger()
+            .info(
+                "Not running Error Prone, sources are analyzed by {}",
+                errorproneOptions.getAnalyzedBy().get());
+      }
+      if (!isEnabledInCompileTask(errorproneOptions)) {
         return;
       }
+      errorproneOptions.writeArgumentFile(argumentFileDirectory.get().getAsFile());
       JavaVersion compilerVersion = jvmArgumentProvider.getCompilerVersion();
       if (compilerVersion == null) {
         return;
@@ -279,15 +975,309 @@ public abstract class ErrorPronePlugin implements Plugin<Project> {
       }
       if (!options.isFork()
           && compilerVersion.equals(JavaVersion.current())
-          && StrongEncapsulationHelperJava.CURRENT_JVM_NEEDS_FORKING) {
+          && StrongEncapsulationHelperJava.currentJvmNeedsForking(exportJdkCompiler)) {
+        if (exportJdkCompiler) {
+          task.getLogger()
+              .info("Could not export the jdk.compiler packages in the Gradle daemon, forking");
+        }
         options.setFork(true);
       }
+      // Compilations with another toolchain implicitly run in a compiler daemon
+      if (compilerDaemonService != null
+          && (options.isFork() || !compilerVersion.equals(JavaVersion.current()))
+          && !isCommandLine(options)) {
+        ForkOptions forkOptions = options.getForkOptions();
+        compilerDaemonService
+            .get()
+            .record(toolchain((JavaCompile) task), effectiveForkOptions(forkOptions));
+      }
+    }
+  }
+
+  /**
+   * Configures the fork options of a task running Error Prone, once the task graph is ready: uses
+   * a compiler daemon {@linkplain #useCompilerDaemonIfPossible if possible}, then {@linkplain
+   * #shareCompilerDaemon shares} it with other compilations if enabled.
+   */
+  private static void configureForkOptions(
+      JavaCompile task,
+      ErrorProneOptions errorproneOptions,
+      ErrorProneJvmArgumentProvider jvmArgumentProvider,
+      @Nullable Provider<ErrorProneCompilerDaemonService> compilerDaemonService) {
+    CompileOptions options = task.getOptions();
+    if (isCommandLine(options)) {
+      useCompilerDaemonIfPossible(task, errorproneOptions);
+    }
+    if (compilerDaemonService == null || isCommandLine(options)) {
+      return;
+    }
+    JavaVersion compilerVersion = jvmArgumentProvider.getCompilerVersion();
+    if (compilerVersion == null || !compilerVersion.isCompatibleWith(JavaVersion.VERSION_11)) {
+      return;
+    }
+    // Whether the task forks is only known at execution time when exporting the jdk.compiler
+    // packages in the Gradle daemon, so this could normalize the fork options of a task that
+    // eventually doesn't fork, which is harmless.
+    if (options.isFork()
+        || !compilerVersion.equals(JavaVersion.current())
+        || StrongEncapsulationHelperJava.CURRENT_JVM_NEEDS_FORKING) {
+      shareCompilerDaemon(task, compilerDaemonService.get());
+    }
+  }
+
+  /**
+   * Normalizes the fork options so that compilations with the same toolchain share a compiler
+   * daemon: JVM arguments are {@linkplain #normalizeJvmArgs reordered}, and the heap size is the
+   * same for all compilations if configured. A daemon is replaced after a configured number of
+   * compilations with the same fork options by adding a system property with its generation to the
+   * JVM arguments.
+   */
+  private static void shareCompilerDaemon(
+      JavaCompile task, ErrorProneCompilerDaemonService service) {
+    ForkOptions forkOptions = task.getOptions().getForkOptions();
+    String maxHeapSize = service.getParameters().getMaxHeapSize().getOrNull();
+    if (maxHeapSize != null) {
+      forkOptions.setMemoryInitialSize(null);
+      forkOptions.setMemoryMaximumSize(maxHeapSize);
+    }
+    List<String> configuredJvmArgs = forkOptions.getJvmArgs();
+    forkOptions.setJvmArgs(
+        configuredJvmArgs == null ? new ArrayList<>() : normalizeJvmArgs(configuredJvmArgs));
+    int generation = service.generation(toolchain(task), effectiveForkOptions(forkOptions));
+    if (generation > 0) {
+      requireNonNull(forkOptions.getJvmArgs())
+          .add("-D" + COMPILER_DAEMON_GENERATION_PROPERTY + "=" + generation);
+    }
+  }
+
+  /** Returns the installation path of the JDK the task's compiler daemon would run with. */
+  private static String toolchain(JavaCompile task) {
+    JavaCompiler javaCompiler = task.getJavaCompiler().getOrNull();
+    return javaCompiler != null
+        ? javaCompiler.getMetadata().getInstallationPath().getAsFile().getPath()
+        : System.getProperty("java.home");
+  }
+
+  /** Returns the fork options that determine whether compilations can share a compiler daemon. */
+  private static String effectiveForkOptions(ForkOptions forkOptions) {
+    return forkOptions.getMemoryInitialSize()
+        + " "
+        + forkOptions.getMemoryMaximumSize()
+        + " "
+        + forkOptions.getJvmArgs();
+  }
+
+  /**
+   * Clears the custom {@code javaHome} and {@code executable} when the task's toolchain is the
+   * same JDK or one of the same Java version, so the compilation runs in a (reusable) compiler
+   * daemon rather than spawning javac from the command line.
+   *
+   * <p>This runs once the task graph is ready, so that the task's inputs, and the compiler version
+   * used to compute its JVM arguments, reflect the fork options it actually uses.
+   */
+  private static void useCompilerDaemonIfPossible(
+      JavaCompile task, ErrorProneOptions errorproneOptions) {
+    ForkOptions forkOptions = task.getOptions().getForkOptions();
+    if (!errorproneOptions.getPreferCompilerDaemon().getOrElse(false)) {
+      task.getLogger()
+          .info(
+              "{} runs javac from the command line as it forks with a custom javaHome or"
+                  + " executable; enable errorprone.preferCompilerDaemon to use a compiler daemon"
+                  + " instead",
+              task.getPath());
+      return;
+    }
+    File javaHome = commandLineJavaHome(forkOptions);
+    JavaCompiler javaCompiler = task.getJavaCompiler().getOrNull();
+    if (javaCompiler != null && javaHome != null && isEquivalent(javaCompiler, javaHome)) {
+      forkOptions.setJavaHome(null);
+      forkOptions.setExecutable(null);
+      task.getLogger()
+          .info(
+              "Using a compiler daemon with {} rather than javac from {}",
+              javaCompiler.getMetadata().getInstallationPath(),
+              javaHome);
+      return;
+    }
+    task.getLogger()
+        .warn(
+            "{} still runs javac from the command line, as its JDK ({}) doesn't match its"
+                + " toolchain ({})",
+            task.getPath(),
+            javaHome != null ? javaHome : forkOptions.getExecutable(),
+            javaCompiler != null ? javaCompiler.getMetadata().getInstallationPath() : "none");
+  }
+
+  /**
+   * Reorders the single-token system properties ({@code -D}) and non-standard options ({@code -X})
+   * by name, after all other arguments, whose order is kept as-is as some take their value as the
+   * next argument (e.g. {@code --add-exports <value>}). Arguments for the same option keep their
+   * relative order, so that the last one still wins, and none is removed.
+   */
+  static List<String> normalizeJvmArgs(List<String> jvmArgs) {
+    List<String> normalized = new ArrayList<>(jvmArgs.size());
+    List<String> reordered = new ArrayList<>();
+    boolean isValue = false;
+    for (String arg : jvmArgs) {
+      if (!isValue && (arg.startsWith("-D") || arg.startsWith("-X"))) {
+        reordered.add(arg);
+        continue;
+      }
+      normalized.add(arg);
+      // Options taking their value as the next argument: -cp, -p, --add-exports, etc.
+      isValue =
+          !isValue && (arg.equals("-cp") || arg.equals("-p") || isLongOptionWithoutValue(arg));
     }
+    // Stable sort
+    reordered.sort(Comparator.comparing(ErrorPronePlugin::jvmArgName));
+    normalized.addAll(reordered);
+    return normalized;
   }
 
-  private static class StrongEncapsulationHelperJava {
+  private static boolean isLongOptionWithoutValue(String arg) {
+    return arg.startsWith("--") && arg.indexOf('=') < 0;
+  }
+
+  /** Returns the name of a {@code -D} or {@code -X} JVM argument, without its value. */
+  private static String jvmArgName(String arg) {
+    if (arg.startsWith("-XX:")) {
+      // -XX:+Name, -XX:-Name, or -XX:Name=value
+      String name = arg.substring("-XX:".length()).replaceFirst("^[+-]", "");
+      int equals = name.indexOf('=');
+      return "-XX:" + (equals < 0 ? name : name.substring(0, equals));
+    }
+    if (arg.startsWith("-Xms")
+        || arg.startsWith("-Xmx")
+        || arg.startsWith("-Xss")
+        || arg.startsWith("-Xmn")) {
+      return arg.substring(0, "-Xmx".length());
+    }
+    int separator = arg.startsWith("-D") ? arg.indexOf('=') : arg.indexOf(':');
+    return separator < 0 ? arg : arg.substring(0, separator);
+  }
+
+  private static @Nullable File commandLineJavaHome(ForkOptions forkOptions) {
+    if (forkOptions.getJavaHome() != null) {
+      return forkOptions.getJavaHome();
+    }
+    // <javaHome>/bin/javac
+    File bin =
+        new File(requireNonNull(forkOptions.getExecutable())).getAbsoluteFile().getParentFile();
+    return bin == null ? null : bin.getParentFile();
+  }
+
+  /**
+   * Whether the JDK at the given {@code javaHome} is the toolchain's, or the same Java version from
+   * the same implementor according to their {@code release} files.
+   */
+  private static boolean isEquivalent(JavaCompiler javaCompiler, File javaHome) {
+    File installationPath = javaCompiler.getMetadata().getInstallationPath().getAsFile();
+    try {
+      if (installationPath.getCanonicalFile().equals(javaHome.getCanonicalFile())) {
+        return true;
+      }
+    } catch (IOException e) {
+      return false;
+    }
+    Properties javaHomeRelease = release(javaHome);
+    Properties toolchainRelease = release(installationPath);
+    return javaHomeRelease != null
+        && toolchainRelease != null
+        && javaHomeRelease.getProperty("JAVA_VERSION") != null
+        && Stream.of("JAVA_VERSION", "IMPLEMENTOR")
+            .allMatch(
+                key ->
+                    Objects.equals(
+                        javaHomeRelease.getProperty(key), toolchainRelease.getProperty(key)));
+  }
+
+  /** Reads the {@code release} file of a JDK, if any. */
+  private static @Nullable Properties release(File javaHome) {
+    Properties release = new Properties();
+    try (InputStream in = Files.newInputStream(new File(javaHome, "release").toPath())) {
+      release.load(in);
+    } catch (IOException e) {
+      return null;
+    }
+    return release;
+  }
+
+  static class StrongEncapsulationHelperJava {
     static final boolean CURRENT_JVM_NEEDS_FORKING = currentJvmNeedsForking();
 
+    private static volatile boolean exported;
+    private static volatile boolean exportFailed;
+
+    /**
+     * Whether Error Prone can't run in the current JVM, even after exporting the {@code
+     * jdk.compiler} packages at runtime when {@code exportPackages} is {@code true}.
+     *
+     * <p>Packages exported by a previous call are taken into account even when {@code
+     * exportPackages} is {@code false}.
+     */
+    static boolean currentJvmNeedsForking(boolean exportPackages) {
+      if (!CURRENT_JVM_NEEDS_FORKING || exported) {
+        return false;
+      }
+      return !exportPackages || !exportPackages();
+    }
+
+    /**
+     * Exports (or opens) the packages of {@link #JVM_ARGS_STRONG_ENCAPSULATION} to all unnamed
+     * modules, as the equivalent JVM arguments would do, and checks that it worked.
+     *
+     * <p>This relies on {@code java.lang} being open to unnamed modules, as it is in the Gradle
+     * daemon. If it fails, a warning is logged (only once) and compilations are forked.
+     */
+    private static synchronized boolean exportPackages() {
+      if (exported) {
+        return true;
+      }
+      if (exportFailed) {
+        return false;
+      }
+      try {
+        // Only needed because we compile with --release 8
+        Method getModule = Class.class.getMethod("getModule");
+        Class<?> moduleClass = getModule.getReturnType();
+        Method addExports =
+            moduleClass.getDeclaredMethod("implAddExportsToAllUnnamed", String.class);
+        Method addOpens = moduleClass.getDeclaredMethod("implAddOpensToAllUnnamed", String.class);
+        addExports.setAccessible(true);
+        addOpens.setAccessible(true);
+        Object jdkCompiler =
+            getModule.invoke(Class.forName("com.sun.tools.javac.api.BasicJavacTask"));
+        for (String argument : JVM_ARGS_STRONG_ENCAPSULATION) {
+          // --add-exports=jdk.compiler/<package>=ALL-UNNAMED
+          String packageName =
+              argument.substring(argument.indexOf('/') + 1, argument.lastIndexOf('='));
+          Method addExportsOrOpens = argument.startsWith("--add-opens=") ? addOpens : addExports;
+          addExportsOrOpens.invoke(jdkCompiler, packageName);
+        }
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        // e.g. InaccessibleObjectException if java.lang isn't open
+        warnExportFailed(e.toString());
+        return false;
+      }
+      exported = !currentJvmNeedsForking();
+      if (!exported) {
+        warnExportFailed("packages still not exported");
+      }
+      return exported;
+    }
+
+    private static void warnExportFailed(String reason) {
+      exportFailed = true;
+      Logging.getLogger(ErrorPronePlugin.class)
+          .warn(
+              "Could not export the jdk.compiler packages in the Gradle daemon ({}), Error Prone"
+                  + " compilations will be forked. To run them in the Gradle daemon, add the"
+                  + " following JVM arguments to org.gradle.jvmargs (e.g. in gradle.properties):"
+                  + " {}",
+              reason,
+              String.join(" ", JVM_ARGS_STRONG_ENCAPSULATION));
+    }
+
     private static boolean currentJvmNeedsForking() {
       if (!JavaVersion.current().isCompatibleWith(JavaVersion.VERSION_16)) {
         return false;
@@ -0,0 +1,69 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.File;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Logs the diagnostics recorded by an {@link ErrorProneAnalyze} task, and fails if there are any
+ * errors.
+ *
+ * <p>Such a task finalizes each {@code ErrorProneAnalyze} task. As it has no outputs, it runs
+ * whenever the analysis task is part of the build, even when that one is up-to-date or its outputs
+ * are loaded from the build cache, so diagnostics are always reported.
+ */
+public abstract class ErrorProneReport extends DefaultTask {
+  /** The diagnostics files, as written by {@link ErrorProneAnalyze#getDiagnosticsFile()}. */
+  @InputFiles
+  @PathSensitive(PathSensitivity.NONE)
+  public abstract ConfigurableFileCollection getDiagnostics();
+
+  @Inject
+  protected abstract ProjectLayout getProjectLayout();
+
+  @TaskAction
+  void report() {
+    File projectDir = getProjectLayout().getProjectDirectory().getAsFile();
+    SortedSet<ErrorProneDiagnostic> diagnostics = new TreeSet<>();
+    for (File file : getDiagnostics().getFiles()) {
+      // The analysis task could have had no source, or failed
+      if (file.isFile()) {
+        for (ErrorProneDiagnostic diagnostic : ErrorProneDiagnostic.read(file)) {
+          // Paths are relative to the project directory, which could have moved since the analysis
+          diagnostics.add(diagnostic.resolve(projectDir));
+        }
+      }
+    }
+    int errors = 0;
+    int warnings = 0;
+    for (ErrorProneDiagnostic diagnostic : diagnostics) {
+      if (diagnostic.isError()) {
+        errors++;
+        getLogger().error(diagnostic.getRendered());
+      } else if (diagnostic.isWarning()) {
+        warnings++;
+        getLogger().warn(diagnostic.getRendered());
+      } else {
+        getLogger().lifecycle(diagnostic.getRendered());
+      }
+    }
+    if (errors > 0) {
+      getLogger().error(ErrorProneDiagnostic.count(errors, "error"));
+    }
+    if (warnings > 0) {
+      getLogger().warn(ErrorProneDiagnostic.count(warnings, "warning"));
+    }
+    if (errors > 0) {
+      throw new GradleException(ErrorProneAnalyze.FAILURE_MESSAGE);
+    }
+  }
+}
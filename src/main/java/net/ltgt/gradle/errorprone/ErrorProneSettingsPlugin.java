@@ -0,0 +1,23 @@
+package net.ltgt.gradle.errorprone;
+
+import org.gradle.api.Plugin;
+import org.gradle.api.initialization.Settings;
+
+/**
+ * A {@link Plugin} that registers {@link ErrorProneDefaults} on the settings, that the defaults of
+ * all projects applying the {@link ErrorPronePlugin} inherit from.
+ */
+public abstract class ErrorProneSettingsPlugin implements Plugin<Settings> {
+  public static final String PLUGIN_ID = "net.ltgt.errorprone-settings";
+
+  @Override
+  public void apply(Settings settings) {
+    ErrorProneDefaults defaults =
+        settings.getExtensions().create(ErrorProneDefaults.NAME, ErrorProneDefaults.class);
+    // Projects don't have access to the settings, so share the defaults through the Gradle object
+    settings
+        .getGradle()
+        .getExtensions()
+        .add(ErrorProneDefaults.class, ErrorProneDefaults.NAME, defaults);
+  }
+}
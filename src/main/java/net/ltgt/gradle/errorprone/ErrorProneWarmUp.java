@@ -0,0 +1,167 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.Task;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Starts, in the background, the worker processes of an {@link ErrorProneAnalyze} task and
+ * compiles a tiny source file in each of them with the same Error Prone options, so the processes
+ * are already started, with Error Prone loaded and warmed up, by the time the analysis runs.
+ *
+ * <p>Such a task is registered for each source set when the {@code
+ * net.ltgt.errorprone.warmUpAnalysis} Gradle property is set, and is a dependency of the analysis
+ * task. Its action doesn't wait for the warm-up to complete, so other tasks (e.g. the compilation)
+ * can run meanwhile, but Gradle only considers the task complete, and runs the analysis, once the
+ * warm-up is done. Failures are logged as warnings, without failing the build, as the analysis
+ * would report them anyway.
+ *
+ * <p>A warm-up is submitted for each {@linkplain ErrorProneOptions#getAnalysisShards() shard} of
+ * the analysis, with the same fork options, so Gradle starts as many worker processes as the
+ * analysis will use (within the limit of its maximum number of workers). Worker processes are only
+ * warmed up once per build for a given configuration. Only the analysis worker processes are
+ * warmed up, not the compiler daemon of the {@link org.gradle.api.tasks.compile.JavaCompile}
+ * tasks.
+ *
+ * <p>The task has no outputs, so it's never up-to-date (its properties are all {@link Internal}):
+ * it runs whenever the analysis task is part of the build, even when the analysis then turns out to
+ * be up-to-date.
+ */
+public abstract class ErrorProneWarmUp extends DefaultTask {
+  private static final String SOURCE =
+      "final class ErrorProneWarmUp {\n"
+          + "  int run(String s) {\n"
+          + "    return s.isEmpty() ? 0 : s.hashCode();\n"
+          + "  }\n"
+          + "}\n";
+
+  private @Nullable ErrorProneOptions errorproneOptions;
+  private @Nullable Provider<ErrorProneWarmUpService> warmUpService;
+
+  @SuppressWarnings("this-escape")
+  public ErrorProneWarmUp() {
+    onlyIf(new IsEnabled());
+  }
+
+  /** The Error Prone options, generally those of the source set's compilation task. */
+  @Internal
+  public @Nullable ErrorProneOptions getErrorproneOptions() {
+    return errorproneOptions;
+  }
+
+  public void setErrorproneOptions(ErrorProneOptions errorproneOptions) {
+    this.errorproneOptions = errorproneOptions;
+  }
+
+  void setWarmUpService(Provider<ErrorProneWarmUpService> warmUpService) {
+    this.warmUpService = warmUpService;
+  }
+
+  /** The classpath containing Error Prone and its plugins; passed as {@code -processorpath}. */
+  @Internal
+  public abstract ConfigurableFileCollection getErrorproneClasspath();
+
+  /** The Java launcher used to run {@code javac} with Error Prone. */
+  @Internal
+  public abstract Property<JavaLauncher> getJavaLauncher();
+
+  @Internal
+  public abstract Property<Integer> getRelease();
+
+  /** The maximum heap size for the process running {@code javac}. */
+  @Internal
+  public abstract Property<String> getMaxHeapSize();
+
+  @Inject
+  protected abstract WorkerExecutor getWorkerExecutor();
+
+  @TaskAction
+  void warmUp() {
+    ErrorProneOptions errorproneOptions = getErrorproneOptions();
+    if (errorproneOptions == null) {
+      throw new IllegalStateException("errorproneOptions must be set");
+    }
+    JavaLauncher javaLauncher = getJavaLauncher().getOrNull();
+    String maxHeapSize = getMaxHeapSize().getOrNull();
+    String configuration =
+        (javaLauncher == null ? "" : javaLauncher.getExecutablePath().getAsFile().getPath())
+            + "\n"
+            + maxHeapSize
+            + "\n"
+            + getErrorproneClasspath().getAsPath();
+    int shards = errorproneOptions.getAnalysisShards().getOrElse(1);
+    int workers = shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+    if (warmUpService != null) {
+      workers = warmUpService.get().claim(configuration, workers);
+    }
+    if (workers == 0) {
+      getLogger().info("Worker processes with the same configuration are already warmed up");
+      return;
+    }
+
+    File sourceFile = new File(getTemporaryDir(), "ErrorProneWarmUp.java");
+    try {
+      Files.write(sourceFile.toPath(), SOURCE.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    List<String> arguments = new ArrayList<>();
+    arguments.add("-processorpath");
+    arguments.add(getErrorproneClasspath().getAsPath());
+    arguments.add("-proc:none");
+    arguments.add("-implicit:none");
+    if (getRelease().isPresent()) {
+      arguments.add("--release");
+      arguments.add(String.valueOf(getRelease().get()));
+    }
+    // The warm-up source file must not be excluded as it's not one of the changed files
+    arguments.addAll(
+        ErrorPronePlugin.compilerArguments(errorproneOptions.toStringForAllFiles()));
+    arguments.add("--should-stop=ifNoError=FLOW");
+
+    WorkQueue workQueue =
+        ErrorProneAnalyze.createWorkQueue(getWorkerExecutor(), javaLauncher, maxHeapSize);
+    for (int i = 0; i < workers; i++) {
+      // Each in its own output directory, as they run concurrently
+      List<String> workerArguments = new ArrayList<>();
+      workerArguments.add("-d");
+      workerArguments.add(new File(getTemporaryDir(), "classes-" + i).getAbsolutePath());
+      workerArguments.addAll(arguments);
+      workQueue.submit(
+          ErrorProneWarmUpAction.class,
+          parameters -> {
+            parameters.getArguments().set(workerArguments);
+            parameters.getSourceFile().set(sourceFile);
+          });
+    }
+    // Don't wait for the warm-up to complete, so other tasks can run meanwhile; Gradle will wait
+    // for it before running the tasks that depend on this one, i.e. the analysis.
+  }
+
+  private static class IsEnabled implements Spec<Task> {
+    @Override
+    public boolean isSatisfiedBy(Task task) {
+      ErrorProneOptions errorproneOptions = ((ErrorProneWarmUp) task).getErrorproneOptions();
+      return errorproneOptions != null
+          && ErrorPronePlugin.isEnabledInAnalyzeTask(errorproneOptions)
+          && !errorproneOptions.getAnalyzeInProcess().getOrElse(false);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+/**
+ * Compiles a tiny source file with Error Prone, in a worker process, so that process has loaded
+ * (and started JIT-compiling) {@code javac} and Error Prone by the time an actual analysis runs.
+ *
+ * <p>Failures are logged as warnings, but don't fail the build: the analysis will report them
+ * anyway.
+ */
+abstract class ErrorProneWarmUpAction implements WorkAction<ErrorProneWarmUpAction.Parameters> {
+  private static final Logger LOGGER = Logging.getLogger(ErrorProneWarmUpAction.class);
+
+  interface Parameters extends WorkParameters {
+    ListProperty<String> getArguments();
+
+    RegularFileProperty getSourceFile();
+  }
+
+  @Override
+  public void execute() {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      LOGGER.warn("Could not warm up Error Prone: no system Java compiler");
+      return;
+    }
+    StringWriter output = new StringWriter();
+    List<String> errors = new ArrayList<>();
+    try (StandardJavaFileManager fileManager =
+            compiler.getStandardFileManager(null, null, null);
+        ErrorProneAnalyzeAction.CachedProcessorClassLoaderFileManager cachingFileManager =
+            new ErrorProneAnalyzeAction.CachedProcessorClassLoaderFileManager(
+                fileManager, compiler.getClass().getClassLoader())) {
+      boolean success =
+          compiler
+              .getTask(
+                  output,
+                  cachingFileManager,
+                  diagnostic -> {
+                    if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                      errors.add(diagnostic.toString());
+                    }
+                  },
+                  getParameters().getArguments().get(),
+                  null,
+                  fileManager.getJavaFileObjectsFromFiles(
+                      Collections.singletonList(
+                          getParameters().getSourceFile().get().getAsFile())))
+              .call();
+      if (!success) {
+        errors.add(output.toString().trim());
+        LOGGER.warn("Could not warm up Error Prone:\n{}", String.join("\n", errors).trim());
+      }
+    } catch (IOException | RuntimeException | LinkageError e) {
+      LOGGER.warn("Could not warm up Error Prone: {}", e.toString());
+      LOGGER.debug("Error Prone warm-up failed", e);
+    }
+  }
+}
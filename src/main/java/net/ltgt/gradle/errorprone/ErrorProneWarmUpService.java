@@ -0,0 +1,30 @@
+package net.ltgt.gradle.errorprone;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Makes sure worker processes are only warmed up once per build for a given configuration, as
+ * {@link ErrorProneWarmUp} tasks of several source sets can share the same worker processes.
+ */
+abstract class ErrorProneWarmUpService implements BuildService<BuildServiceParameters.None> {
+  static final String NAME = "errorproneWarmUp";
+
+  // Number of worker processes warmed up for each configuration
+  private final Map<String, Integer> configurations = new HashMap<>();
+
+  /**
+   * Returns how many of the given number of worker processes with the given configuration still
+   * need to be warmed up, in which case they're then considered warmed up.
+   */
+  synchronized int claim(String configuration, int workers) {
+    int warmedUp = configurations.getOrDefault(configuration, 0);
+    if (workers <= warmedUp) {
+      return 0;
+    }
+    configurations.put(configuration, workers);
+    return workers - warmedUp;
+  }
+}
@@ -0,0 +1,123 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.ValueSource;
+import org.gradle.api.provider.ValueSourceParameters;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Computes the canonical paths of the files changed since a git revision, using the local git
+ * repository only.
+ *
+ * <p>Has no value if no revision is set.
+ *
+ * <p>Paths are canonical, as git resolves symbolic links in the path of the working tree; they
+ * have to be compared with the canonical paths of source files (e.g. when the project is in a
+ * symlinked directory).
+ *
+ * <p>Changes are computed against the merge base of the revision and {@code HEAD}, and include
+ * uncommitted changes and untracked files (that aren't ignored). Deleted files are excluded.
+ */
+abstract class GitChangedFiles implements ValueSource<Set<String>, GitChangedFiles.Parameters> {
+  interface Parameters extends ValueSourceParameters {
+    /** The git revision to compare against, e.g. {@code origin/main}. */
+    Property<String> getRevision();
+
+    /** A directory within the git repository's working tree. */
+    DirectoryProperty getDirectory();
+  }
+
+  @Override
+  public @Nullable Set<String> obtain() {
+    if (!getParameters().getRevision().isPresent()) {
+      return null;
+    }
+    File directory = getParameters().getDirectory().get().getAsFile();
+    File root = new File(git(directory, "rev-parse", "--show-toplevel").trim());
+    String mergeBase = git(root, "merge-base", getParameters().getRevision().get(), "HEAD").trim();
+
+    Set<String> changedFiles = new LinkedHashSet<>();
+    addFiles(changedFiles, root, git(root, "diff", "--name-only", "--no-renames", "-z", mergeBase));
+    addFiles(changedFiles, root, git(root, "ls-files", "--others", "--exclude-standard", "-z"));
+    return changedFiles;
+  }
+
+  private static void addFiles(Set<String> files, File root, String output) {
+    for (String path : output.split("\0")) {
+      if (path.isEmpty()) {
+        continue;
+      }
+      File file = new File(root, path);
+      if (file.isFile()) {
+        files.add(canonicalPath(file));
+      }
+    }
+  }
+
+  static String canonicalPath(File file) {
+    try {
+      return file.getCanonicalPath();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String git(File directory, String... args) {
+    List<String> command = new ArrayList<>(args.length + 1);
+    command.add("git");
+    command.addAll(Arrays.asList(args));
+    File errorFile = null;
+    try {
+      errorFile = File.createTempFile("git", ".err");
+      Process process =
+          new ProcessBuilder(command).directory(directory).redirectError(errorFile).start();
+      String output;
+      try (InputStream in = process.getInputStream()) {
+        output = readFully(in);
+      }
+      int exitValue = process.waitFor();
+      if (exitValue != 0) {
+        throw new GradleException(
+            String.format(
+                "Could not compute changed files: '%s' failed with exit code %d: %s",
+                String.join(" ", command),
+                exitValue,
+                new String(Files.readAllBytes(errorFile.toPath()), StandardCharsets.UTF_8)
+                    .trim()));
+      }
+      return output;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GradleException("Interrupted while computing changed files", e);
+    } finally {
+      if (errorFile != null) {
+        errorFile.delete();
+      }
+    }
+  }
+
+  private static String readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+      out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
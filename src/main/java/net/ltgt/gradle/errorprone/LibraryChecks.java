@@ -0,0 +1,122 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipFile;
+
+/**
+ * Maps Error Prone checks to the libraries they're about, identified by one of their classes, so
+ * they can be disabled when that library isn't on the compile classpath (as they could then never
+ * report anything).
+ *
+ * <p>The table is best-effort: it only lists bundled checks that unambiguously target a single
+ * library, and never checks that also apply to JDK APIs (e.g. {@code UnnecessaryCheckNotNull} also
+ * flags {@code Objects.requireNonNull}).
+ */
+final class LibraryChecks {
+  private static final Map<String, List<String>> CHECKS_BY_LIBRARY_CLASS = new LinkedHashMap<>();
+
+  static {
+    // Guava
+    CHECKS_BY_LIBRARY_CLASS.put(
+        "com/google/common/collect/ImmutableList.class",
+        Arrays.asList(
+            "CacheLoaderNull",
+            "FuturesGetCheckedIllegalExceptionType",
+            "ImmutableMemberCollection",
+            "ImmutableModification",
+            "ImmutableSetForContains",
+            "MultimapKeys",
+            "PreconditionsCheckNotNullRepeated",
+            "PreconditionsInvalidPlaceholder"));
+    // Truth
+    CHECKS_BY_LIBRARY_CLASS.put(
+        "com/google/common/truth/Truth.class",
+        Arrays.asList(
+            "ChainedAssertionLosesContext",
+            "ShouldHaveEvenArgs",
+            "TruthAssertExpected",
+            "TruthConstantAsserts",
+            "TruthGetOrDefault",
+            "TruthIncompatibleType",
+            "TruthSelfEquals"));
+    // JUnit 4
+    CHECKS_BY_LIBRARY_CLASS.put(
+        "org/junit/Test.class",
+        Arrays.asList(
+            "ExpectedExceptionChecker",
+            "JUnit4ClassAnnotationNonStatic",
+            "JUnit4ClassUsedInJUnit3",
+            "JUnit4SetUpNotRun",
+            "JUnit4TearDownNotRun",
+            "JUnit4TestNotRun",
+            "JUnit4TestsNotRunWithinEnclosed",
+            "TestExceptionChecker"));
+    // JUnitParams
+    CHECKS_BY_LIBRARY_CLASS.put(
+        "junitparams/Parameters.class", Arrays.asList("JUnitParameterMethodNotFound"));
+    // JUnit 3 (also part of JUnit 4)
+    CHECKS_BY_LIBRARY_CLASS.put(
+        "junit/framework/TestCase.class",
+        Arrays.asList("JUnit3TestNotRun", "JUnitAmbiguousTestClass", "JUnitAssertSameCheck"));
+    // Mockito
+    CHECKS_BY_LIBRARY_CLASS.put(
+        "org/mockito/Mockito.class",
+        Arrays.asList("CannotMockFinalClass", "MockNotUsedInProduction", "MockitoUsage"));
+    // Dagger
+    CHECKS_BY_LIBRARY_CLASS.put(
+        "dagger/Module.class",
+        Arrays.asList(
+            "EmptySetMultibindingContributions",
+            "PrivateConstructorForNoninstantiableModule",
+            "ProvidesNull",
+            "RefersToDaggerCodegen",
+            "ScopeOnModule",
+            "UseBinds"));
+    // Protobuf
+    CHECKS_BY_LIBRARY_CLASS.put(
+        "com/google/protobuf/MessageLite.class",
+        Arrays.asList(
+            "ProtoBuilderReturnValueIgnored",
+            "ProtoDurationGetSecondsGetNano",
+            "ProtoFieldNullComparison",
+            "ProtoRedundantSet",
+            "ProtoStringFieldReferenceEquality",
+            "ProtoTimestampGetSecondsGetNano",
+            "ProtocolBufferOrdinal"));
+  }
+
+  /** Returns the checks whose library isn't in the given classpath, sorted by name. */
+  static Set<String> checksForMissingLibraries(Iterable<File> classpath) {
+    Set<String> missingClasses = new TreeSet<>(CHECKS_BY_LIBRARY_CLASS.keySet());
+    for (File entry : classpath) {
+      if (missingClasses.isEmpty()) {
+        break;
+      }
+      if (entry.isDirectory()) {
+        missingClasses.removeIf(className -> new File(entry, className).isFile());
+      } else if (entry.isFile()) {
+        try (ZipFile zip = new ZipFile(entry)) {
+          missingClasses.removeIf(className -> zip.getEntry(className) != null);
+        } catch (IOException e) {
+          // Can't tell which libraries it contains, so don't disable anything
+          return Collections.emptySet();
+        }
+      }
+    }
+    Set<String> checks = new TreeSet<>();
+    for (String className : missingClasses) {
+      checks.addAll(CHECKS_BY_LIBRARY_CLASS.get(className));
+    }
+    return checks;
+  }
+
+  private LibraryChecks() {}
+}
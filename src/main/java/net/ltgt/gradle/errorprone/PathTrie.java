@@ -0,0 +1,149 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Builds a regular expression matching a set of paths and globs, as used by {@code
+ * -XepExcludedPaths}.
+ *
+ * <p>Paths are stored in a trie, so the regular expression shares common prefixes (e.g. the project
+ * directory) rather than being a plain alternation: matching a path then only has to try the
+ * alternatives that share a prefix with it. This also removes duplicates.
+ *
+ * <p>Error Prone matches the path from the file's URI, which always uses slashes and, on Windows,
+ * starts with a slash before the drive letter; the regular expression accounts for that.
+ *
+ * <p>The regular expression never contains white space, as it couldn't be passed to Error Prone.
+ */
+final class PathTrie {
+  private static final String ANY_DIRECTORIES = "(?:[^/]*/)*";
+  private static final String ANY_PATH = ".*";
+  private static final String ANY_NAME = "[^/]*";
+  private static final String ANY_CHAR = "[^/]";
+
+  private final Node root = new Node();
+
+  /** Adds an absolute path, to be matched literally. */
+  PathTrie addPath(String path) {
+    return add(path, "");
+  }
+
+  /**
+   * Adds an absolute path followed by a glob, e.g. a directory followed by {@code /**} to match
+   * all files in that directory.
+   *
+   * <p>In the glob, {@code **} matches any number of directories (or any path when at the end),
+   * {@code *} any number of characters in a file or directory name, and {@code ?} any single such
+   * character.
+   */
+  PathTrie add(String path, String glob) {
+    Node node = root;
+    String normalizedPath = path.replace(File.separatorChar, '/');
+    if (normalizedPath.startsWith("/")) {
+      normalizedPath = normalizedPath.substring(1);
+    }
+    for (int i = 0; i < normalizedPath.length(); ) {
+      int c = normalizedPath.codePointAt(i);
+      node = node.child(quote(c));
+      i += Character.charCount(c);
+    }
+    for (int i = 0; i < glob.length(); ) {
+      if (glob.startsWith("**/", i)) {
+        node = node.child(ANY_DIRECTORIES);
+        i += 3;
+      } else if (glob.startsWith("**", i)) {
+        node = node.child(ANY_PATH);
+        i += 2;
+      } else if (glob.charAt(i) == '*') {
+        node = node.child(ANY_NAME);
+        i++;
+      } else if (glob.charAt(i) == '?') {
+        node = node.child(ANY_CHAR);
+        i++;
+      } else {
+        int c = glob.codePointAt(i);
+        node = node.child(quote(c));
+        i += Character.charCount(c);
+      }
+    }
+    node.terminal = true;
+    return this;
+  }
+
+  boolean isEmpty() {
+    return root.children.isEmpty() && !root.terminal;
+  }
+
+  /** Returns the regular expression, or {@code null} if no path was added. */
+  @Nullable String toRegex() {
+    if (isEmpty()) {
+      return null;
+    }
+    StringBuilder regex = new StringBuilder("/?");
+    root.appendTo(regex);
+    return regex.toString();
+  }
+
+  /**
+   * Returns the given absolute path quoted as in the {@linkplain #toRegex() regular expression},
+   * without its leading slash.
+   */
+  static String quote(String path) {
+    StringBuilder quoted = new StringBuilder();
+    String normalizedPath = path.replace(File.separatorChar, '/');
+    for (int i = normalizedPath.startsWith("/") ? 1 : 0; i < normalizedPath.length(); ) {
+      int c = normalizedPath.codePointAt(i);
+      quoted.append(quote(c));
+      i += Character.charCount(c);
+    }
+    return quoted.toString();
+  }
+
+  private static String quote(int c) {
+    if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '/') {
+      return new String(Character.toChars(c));
+    } else if (c < 0x80 && !Character.isWhitespace(c)) {
+      return "\\" + (char) c;
+    } else {
+      return String.format("\\x{%x}", c);
+    }
+  }
+
+  private static final class Node {
+    // Sorted for a deterministic regular expression
+    final Map<String, Node> children = new TreeMap<>();
+    boolean terminal;
+
+    Node child(String atom) {
+      return children.computeIfAbsent(atom, unused -> new Node());
+    }
+
+    void appendTo(StringBuilder regex) {
+      // Follow single-child chains without any grouping
+      Node node = this;
+      while (node.children.size() == 1 && !node.terminal) {
+        Map.Entry<String, Node> child = node.children.entrySet().iterator().next();
+        regex.append(child.getKey());
+        node = child.getValue();
+      }
+      if (node.children.isEmpty()) {
+        return;
+      }
+      List<Map.Entry<String, Node>> children = new ArrayList<>(node.children.entrySet());
+      regex.append("(?:");
+      for (int i = 0; i < children.size(); i++) {
+        if (i > 0) {
+          regex.append('|');
+        }
+        regex.append(children.get(i).getKey());
+        children.get(i).getValue().appendTo(regex);
+      }
+      regex.append(node.terminal ? ")?" : ")");
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package net.ltgt.gradle.errorprone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.gradle.api.artifacts.transform.CacheableTransform;
+import org.gradle.api.artifacts.transform.InputArtifact;
+import org.gradle.api.artifacts.transform.TransformAction;
+import org.gradle.api.artifacts.transform.TransformOutputs;
+import org.gradle.api.artifacts.transform.TransformParameters;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+
+/**
+ * Removes annotation processor declarations from the JARs of the Error Prone plugin path, so they
+ * aren't detected (and run) as annotation processors by Gradle and javac.
+ *
+ * <p>JARs without such declarations are returned as-is. Other JARs are copied without those
+ * entries, keeping the timestamps of the others so the same input always produces the same output.
+ */
+@CacheableTransform
+abstract class StripAnnotationProcessors implements TransformAction<TransformParameters.None> {
+  static final String ARTIFACT_TYPE = "errorprone-plugin-jar";
+
+  private static final String PROCESSOR_SERVICE =
+      "META-INF/services/javax.annotation.processing.Processor";
+  private static final String INCREMENTAL_PROCESSORS =
+      "META-INF/gradle/incremental.annotation.processors";
+
+  @InputArtifact
+  @PathSensitive(PathSensitivity.NAME_ONLY)
+  public abstract Provider<FileSystemLocation> getInputArtifact();
+
+  @Override
+  public void transform(TransformOutputs outputs) {
+    File input = getInputArtifact().get().getAsFile();
+    if (!input.isFile()) {
+      outputs.file(input);
+      return;
+    }
+    try (ZipFile zip = new ZipFile(input)) {
+      if (zip.getEntry(PROCESSOR_SERVICE) == null) {
+        outputs.file(input);
+        return;
+      }
+      File output = outputs.file(input.getName());
+      try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(output.toPath()))) {
+        for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+          ZipEntry entry = entries.nextElement();
+          if (entry.getName().equals(PROCESSOR_SERVICE)
+              || entry.getName().equals(INCREMENTAL_PROCESSORS)) {
+            continue;
+          }
+          ZipEntry copy = new ZipEntry(entry.getName());
+          // Keep the original timestamps, so the output is reproducible
+          copy.setTime(entry.getTime());
+          out.putNextEntry(copy);
+          try (InputStream in = zip.getInputStream(entry)) {
+            copy(in, out);
+          }
+          out.closeEntry();
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[8192];
+    for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+      out.write(buffer, 0, read);
+    }
+  }
+}
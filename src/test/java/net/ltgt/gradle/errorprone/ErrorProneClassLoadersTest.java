@@ -0,0 +1,34 @@
+package net.ltgt.gradle.errorprone;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ErrorProneClassLoadersTest {
+  @Test
+  public void releasesClassLoadersWhenClosed(@TempDir File classpath) throws Exception {
+    var classLoader = acquireAndRelease(classpath);
+    System.gc();
+    // Still cached
+    assertThat(classLoader.get()).isNotNull();
+
+    ErrorProneClassLoaders.closeAll();
+    assertThat(ErrorProneClassLoaders.size()).isEqualTo(0);
+    for (int i = 0; i < 50 && classLoader.get() != null; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    assertThat(classLoader.get()).isNull();
+  }
+
+  private WeakReference<ClassLoader> acquireAndRelease(File classpath) {
+    try (var lease =
+        ErrorProneClassLoaders.acquire(List.of(classpath), getClass().getClassLoader())) {
+      return new WeakReference<>(lease.getClassLoader().getParent());
+    }
+  }
+}
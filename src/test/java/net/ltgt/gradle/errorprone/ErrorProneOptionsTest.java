@@ -1,6 +1,7 @@
 package net.ltgt.gradle.errorprone;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.util.Objects.requireNonNull;
 import static net.ltgt.gradle.errorprone.ErrorPronePlugin.TEST_SOURCE_SET_NAME_REGEX;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -12,6 +13,7 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -29,11 +31,13 @@ import org.junit.jupiter.api.io.TempDir;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class ErrorProneOptionsTest {
+  File projectDir;
   ObjectFactory objects;
   ProviderFactory providers;
 
   @BeforeAll
   public void setup(@TempDir File projectDir) {
+    this.projectDir = projectDir;
     var project = ProjectBuilder.builder().withProjectDir(projectDir).build();
     objects = project.getObjects();
     providers = project.getProviders();
@@ -208,6 +212,234 @@ public class ErrorProneOptionsTest {
     assertOptionsEqual(referenceOptions, parsedOptions);
   }
 
+  @Test
+  public void excludesUnchangedFiles(@TempDir Path tempDir) {
+    var changed = tempDir.resolve("src/main/java/test/Changed File.java").toFile();
+    var unchanged = tempDir.resolve("src/main/java/test/Unchanged.java").toFile();
+    var generated = tempDir.resolve("build/generated/test/Changed File.java").toFile();
+
+    var options = objects.newInstance(ErrorProneOptions.class);
+    options.getChangedFiles().set(Set.of(changed.getAbsolutePath(), generated.getAbsolutePath()));
+    var excludedPattern = requireNonNull(parseOptions(options).getExcludedPattern());
+    assertThat(excludedPattern.matcher(changed.toURI().getPath()).matches()).isFalse();
+    assertThat(excludedPattern.matcher(generated.toURI().getPath()).matches()).isFalse();
+    assertThat(excludedPattern.matcher(unchanged.toURI().getPath()).matches()).isTrue();
+
+    options.getExcludedPaths().set(".*/build/generated/.*");
+    excludedPattern = requireNonNull(parseOptions(options).getExcludedPattern());
+    assertThat(excludedPattern.matcher(changed.toURI().getPath()).matches()).isFalse();
+    assertThat(excludedPattern.matcher(generated.toURI().getPath()).matches()).isTrue();
+    assertThat(excludedPattern.matcher(unchanged.toURI().getPath()).matches()).isTrue();
+
+    // Unless compiling other files with the same options
+    excludedPattern =
+        requireNonNull(
+            com.google.errorprone.ErrorProneOptions.processArgs(
+                    splitArgs(options.toStringForAllFiles()))
+                .getExcludedPattern());
+    assertThat(excludedPattern.matcher(generated.toURI().getPath()).matches()).isTrue();
+    assertThat(excludedPattern.matcher(unchanged.toURI().getPath()).matches()).isFalse();
+  }
+
+  @Test
+  public void excludesPathPatterns(@TempDir Path tempDir) {
+    var legacy = new File(projectDir, "src/legacy/java/test/Legacy.java");
+    var generated = new File(projectDir, "src/main/java/test/GeneratedFoo.java");
+    var generatedDir = new File(projectDir, "build/generated/test/Foo.java");
+    var outside = tempDir.resolve("outside/test/Foo.java").toFile();
+    var source = new File(projectDir, "src/main/java/test/Source.java");
+
+    var options = objects.newInstance(ErrorProneOptions.class);
+    options.excludePath("src/legacy/**", "**/Generated*.java", "src/legacy/**");
+    options.excludeDirectory("build/generated", tempDir.resolve("outside"));
+    assertThat(options.getExcludedPathPatterns().get())
+        .containsExactly(
+            "src/legacy/**",
+            "**/Generated*.java",
+            "build/generated/**",
+            tempDir.resolve("outside").toString().replace(File.separatorChar, '/') + "/**");
+
+    var excludedPattern = requireNonNull(parseOptions(options).getExcludedPattern());
+    assertThat(excludedPattern.matcher(legacy.toURI().getPath()).matches()).isTrue();
+    assertThat(excludedPattern.matcher(generated.toURI().getPath()).matches()).isTrue();
+    assertThat(excludedPattern.matcher(generatedDir.toURI().getPath()).matches()).isTrue();
+    assertThat(excludedPattern.matcher(outside.toURI().getPath()).matches()).isTrue();
+    assertThat(excludedPattern.matcher(source.toURI().getPath()).matches()).isFalse();
+  }
+
+  @Test
+  public void excludesGeneratedSources(@TempDir Path tempDir) {
+    var generatedDir = tempDir.resolve("build/generated/sources/annotationProcessor/java/main");
+    var generated = generatedDir.resolve("test/Generated.java").toFile();
+    var source = tempDir.resolve("src/main/java/test/Source.java").toFile();
+
+    var options = objects.newInstance(ErrorProneOptions.class);
+    options.getGeneratedSourceDirectories().from(generatedDir);
+    assertThat(parseOptions(options).getExcludedPattern()).isNull();
+
+    options.getExcludeGeneratedSources().set(true);
+    var excludedPattern = requireNonNull(parseOptions(options).getExcludedPattern());
+    assertThat(excludedPattern.matcher(generated.toURI().getPath()).matches()).isTrue();
+    assertThat(excludedPattern.matcher(source.toURI().getPath()).matches()).isFalse();
+
+    options.getExcludedPaths().set(".*/Source\\.java");
+    excludedPattern = requireNonNull(parseOptions(options).getExcludedPattern());
+    assertThat(excludedPattern.matcher(generated.toURI().getPath()).matches()).isTrue();
+    assertThat(excludedPattern.matcher(source.toURI().getPath()).matches()).isTrue();
+  }
+
+  @Test
+  public void inheritsFromDefaults() {
+    var settingsDefaults = objects.newInstance(ErrorProneDefaults.class);
+    settingsDefaults.getDisableWarningsInGeneratedCode().set(true);
+    settingsDefaults.checks(
+        Map.of("ArrayEquals", CheckSeverity.ERROR, "BetaApi", CheckSeverity.WARN));
+    settingsDefaults.option("Foo", "settings");
+    settingsDefaults.getErrorproneArgs().add("-XepAllErrorsAsWarnings");
+
+    var defaults = objects.newInstance(ErrorProneDefaults.class);
+    defaults.inheritFrom(settingsDefaults);
+    defaults.warn("ArrayEquals");
+    defaults.option("Foo", "project");
+
+    doTestOptions(
+        options -> {
+          options.inheritFrom(defaults);
+          options.disable("BetaApi");
+          options.option("Bar");
+        },
+        reference -> {
+          reference.getDisableWarningsInGeneratedCode().set(true);
+          reference.getAllErrorsAsWarnings().set(true);
+          reference.warn("ArrayEquals");
+          reference.disable("BetaApi");
+          reference.option("Foo", "project");
+          reference.option("Bar");
+        });
+
+    // Tasks only store their own entries
+    var options = objects.newInstance(ErrorProneOptions.class);
+    options.inheritFrom(defaults);
+    options.disable("BetaApi");
+    assertThat(options.getChecks().get()).containsExactly("BetaApi", CheckSeverity.OFF);
+    assertThat(options.getEffectiveChecks())
+        .containsExactly("ArrayEquals", CheckSeverity.WARN, "BetaApi", CheckSeverity.OFF);
+
+    // Inheritance is lazy
+    settingsDefaults.enable("NullAway");
+    assertThat(options.getEffectiveChecks()).containsEntry("NullAway", CheckSeverity.DEFAULT);
+
+    // Tasks don't keep a reference to the defaults, so they're not serialized with them
+    for (var field : ErrorProneOptions.class.getDeclaredFields()) {
+      assertThat(field.getType()).isNotEqualTo(ErrorProneDefaults.class);
+    }
+  }
+
+  @Test
+  public void disablesChecksForMissingLibraries(@TempDir Path tempDir) throws Exception {
+    var classes = Files.createDirectories(tempDir.resolve("classes/org/junit"));
+    Files.createFile(classes.resolve("Test.class"));
+
+    var options = objects.newInstance(ErrorProneOptions.class);
+    options.getLibraryClasspath().from(tempDir.resolve("classes"));
+    options.error("MockitoUsage");
+    assertThat(options.getChecksForMissingLibraries()).isEmpty();
+
+    options.getDisableChecksForMissingLibraries().set(true);
+    assertThat(options.getChecksForMissingLibraries()).contains("CacheLoaderNull");
+    assertThat(options.getChecksForMissingLibraries()).doesNotContain("JUnit4TestNotRun");
+    // Explicitly configured checks are kept
+    assertThat(options.getChecksForMissingLibraries()).doesNotContain("MockitoUsage");
+
+    var severityMap = parseOptions(options).getSeverityMap();
+    assertThat(severityMap).containsEntry("CacheLoaderNull", Severity.OFF);
+    assertThat(severityMap).containsEntry("MockitoUsage", Severity.ERROR);
+    assertThat(severityMap).doesNotContainKey("JUnit4TestNotRun");
+
+    // Passed along with the checks, not as part of the base arguments
+    assertThat(options.getAllChecks()).containsEntry("CacheLoaderNull", CheckSeverity.OFF);
+    assertThat(options.toString(Map.of())).doesNotContain("-Xep:");
+
+    options.getDisableAllChecks().set(true);
+    assertThat(options.getChecksForMissingLibraries()).isEmpty();
+  }
+
+  @Test
+  public void doesNotDisableChecksForJdkApis() {
+    var options = objects.newInstance(ErrorProneOptions.class);
+    options.getDisableChecksForMissingLibraries().set(true);
+    // Also flags Objects.requireNonNull
+    assertThat(options.getChecksForMissingLibraries()).doesNotContain("UnnecessaryCheckNotNull");
+  }
+
+  @Test
+  public void writesArgumentFile(@TempDir Path tempDir) throws Exception {
+    var argfile = Files.writeString(tempDir.resolve("ep_argfile.cfg"), "-XepDisableAllChecks\n");
+    var options = objects.newInstance(ErrorProneOptions.class);
+    options.getArgumentFiles().from(argfile);
+    options.getCompilingTestOnlyCode().set(true);
+    options.error("ArrayEquals");
+    options.option("NullAway:AnnotatedPackages", "net.ltgt.gradle.errorprone");
+    var directory = tempDir.resolve("tmp").toFile();
+    assertThat(options.toPluginArguments(directory)).isEqualTo(options.toString());
+
+    options.getUseArgumentFile().set(true);
+    var pluginArguments = options.toPluginArguments(directory);
+    assertThat(pluginArguments).matches("@\\S+ @\\S+\\.args");
+    // Computing the arguments has no side effect
+    assertThat(directory.exists()).isFalse();
+
+    options.writeArgumentFile(directory);
+    assertThat(directory.list()).hasLength(1);
+    var referenceOptions = objects.newInstance(ErrorProneOptions.class);
+    referenceOptions.getDisableAllChecks().set(true);
+    referenceOptions.getCompilingTestOnlyCode().set(true);
+    referenceOptions.error("ArrayEquals");
+    referenceOptions.option("NullAway:AnnotatedPackages", "net.ltgt.gradle.errorprone");
+    assertOptionsEqual(
+        referenceOptions,
+        com.google.errorprone.ErrorProneOptions.processArgs(splitArgs(pluginArguments)));
+
+    // Options with the same content share the same file
+    var sameOptions = objects.newInstance(ErrorProneOptions.class);
+    sameOptions.getArgumentFiles().from(argfile);
+    sameOptions.getCompilingTestOnlyCode().set(true);
+    sameOptions.error("ArrayEquals");
+    sameOptions.option("NullAway:AnnotatedPackages", "net.ltgt.gradle.errorprone");
+    sameOptions.getUseArgumentFile().set(true);
+    assertThat(sameOptions.toPluginArguments(directory)).isEqualTo(pluginArguments);
+    sameOptions.writeArgumentFile(directory);
+    assertThat(directory.list()).hasLength(1);
+
+    // Other options use another file, without deleting the shared one
+    options.warn("ArrayEquals");
+    assertThat(options.toPluginArguments(directory)).isNotEqualTo(pluginArguments);
+    options.writeArgumentFile(directory);
+    assertThat(directory.list()).hasLength(2);
+
+    options.getUseArgumentFile().set(false);
+    assertThat(options.toPluginArguments(directory)).isEqualTo(options.toString());
+  }
+
+  @Test
+  public void pathInputsAreRelativeToProjectDirectory(@TempDir Path tempDir) {
+    var outside = tempDir.resolve("outside").toString().replace(File.separatorChar, '/');
+
+    var options = objects.newInstance(ErrorProneOptions.class);
+    options.excludePath(new File(projectDir, "src/legacy").getAbsolutePath() + "/**", "**/*.txt");
+    options.excludeDirectory("build/generated", outside);
+    options.getChangedFiles().add(new File(projectDir, "src/main/java/test/Source.java").getPath());
+    options.getGeneratedSourceDirectories().from("build/generated/sources/annotationProcessor");
+    options.getExcludeGeneratedSources().set(true);
+
+    assertThat(options.getRelativeExcludedPathPatterns())
+        .containsExactly("**/*.txt", outside + "/**", "build/generated/**", "src/legacy/**")
+        .inOrder();
+    assertThat(options.getRelativeChangedFiles()).containsExactly("src/main/java/test/Source.java");
+    assertThat(options.getGeneratedSourceDirectoryPaths())
+        .containsExactly("build/generated/sources/annotationProcessor");
+  }
+
   @Test
   public void rejectsSpaces() {
     doTestSpaces(
@@ -0,0 +1,84 @@
+package net.ltgt.gradle.errorprone;
+
+import static com.google.common.truth.Truth.assertThat;
+import static net.ltgt.gradle.errorprone.ErrorPronePlugin.analysisCompilerArgs;
+import static net.ltgt.gradle.errorprone.ErrorPronePlugin.normalizeJvmArgs;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ErrorPronePluginTest {
+  @Test
+  public void normalizeJvmArgsKeepsTwoTokenArgs() {
+    assertThat(
+            normalizeJvmArgs(
+                List.of(
+                    "-Xss4m",
+                    "--add-exports",
+                    "java.base/sun.nio.ch=ALL-UNNAMED",
+                    "-Dfoo=bar",
+                    "-Xss8m")))
+        .containsExactly(
+            "--add-exports", "java.base/sun.nio.ch=ALL-UNNAMED", "-Dfoo=bar", "-Xss4m", "-Xss8m")
+        .inOrder();
+    // The value of a two-token arg is never reordered, even if it looks like a system property
+    assertThat(normalizeJvmArgs(List.of("-Dz=1", "--add-opens", "-Da=2", "-cp", "-Db.jar")))
+        .containsExactly("--add-opens", "-Da=2", "-cp", "-Db.jar", "-Dz=1")
+        .inOrder();
+    // Single-token forms take no value from the next arg
+    assertThat(
+            normalizeJvmArgs(
+                List.of("--add-exports=java.base/sun.nio.ch=ALL-UNNAMED", "-Dfoo=bar", "-ea")))
+        .containsExactly("--add-exports=java.base/sun.nio.ch=ALL-UNNAMED", "-ea", "-Dfoo=bar")
+        .inOrder();
+  }
+
+  @Test
+  public void normalizeJvmArgsSortsXxFlagsByName() {
+    assertThat(
+            normalizeJvmArgs(
+                List.of("-XX:+UseG1GC", "-XX:MaxMetaspaceSize=1g", "-XX:-UseG1GC", "-Xmx1g")))
+        .containsExactly("-XX:MaxMetaspaceSize=1g", "-XX:+UseG1GC", "-XX:-UseG1GC", "-Xmx1g")
+        .inOrder();
+  }
+
+  @Test
+  public void normalizeJvmArgsKeepsDuplicatesInOrder() {
+    assertThat(normalizeJvmArgs(List.of("-Dfoo=1", "-Xmx1g", "-Dbar=2", "-Dfoo=3", "-Xmx1g")))
+        .containsExactly("-Dbar=2", "-Dfoo=1", "-Dfoo=3", "-Xmx1g", "-Xmx1g")
+        .inOrder();
+    assertThat(normalizeJvmArgs(List.of("-Xmx2g", "-Xms1g", "-Xmx1g")))
+        .containsExactly("-Xms1g", "-Xmx2g", "-Xmx1g")
+        .inOrder();
+  }
+
+  @Test
+  public void normalizeJvmArgsIsIdempotent() {
+    var jvmArgs =
+        List.of("-Xss4m", "--add-exports", "java.base/sun.nio.ch=ALL-UNNAMED", "-XX:+UseG1GC");
+    assertThat(normalizeJvmArgs(normalizeJvmArgs(jvmArgs)))
+        .containsExactlyElementsIn(normalizeJvmArgs(jvmArgs))
+        .inOrder();
+  }
+
+  @Test
+  public void analysisCompilerArgsOnlyKeepsThoseForTheAnalysis() {
+    assertThat(
+            analysisCompilerArgs(
+                List.of(
+                    "-Werror",
+                    "-Xlint:all,-serial",
+                    "-parameters",
+                    "-processorpath",
+                    "/path/to/processors.jar",
+                    "-proc:full",
+                    "--processor-path=/path/to/processors.jar",
+                    "-processor",
+                    "com.example.Processor",
+                    "-Xlint",
+                    "--add-exports",
+                    "java.base/sun.nio.ch=ALL-UNNAMED")))
+        .containsExactly("-parameters", "--add-exports", "java.base/sun.nio.ch=ALL-UNNAMED")
+        .inOrder();
+  }
+}
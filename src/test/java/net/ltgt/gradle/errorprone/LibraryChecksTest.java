@@ -0,0 +1,67 @@
+package net.ltgt.gradle.errorprone;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LibraryChecksTest {
+  @Test
+  public void returnsAllChecksForEmptyClasspath() {
+    var checks = LibraryChecks.checksForMissingLibraries(List.of());
+    assertThat(checks)
+        .containsAtLeast(
+            "CacheLoaderNull",
+            "TruthSelfEquals",
+            "JUnit4TestNotRun",
+            "JUnitParameterMethodNotFound",
+            "JUnit3TestNotRun",
+            "MockitoUsage",
+            "ProvidesNull",
+            "ProtocolBufferOrdinal");
+    assertThat(checks).isInOrder();
+  }
+
+  @Test
+  public void keepsChecksForLibrariesInDirectories(@TempDir Path classes) throws Exception {
+    Files.createDirectories(classes.resolve("org/junit"));
+    Files.createFile(classes.resolve("org/junit/Test.class"));
+
+    var checks = LibraryChecks.checksForMissingLibraries(List.of(classes.toFile()));
+    assertThat(checks).containsNoneOf("JUnit4TestNotRun", "TestExceptionChecker");
+    // JUnitParams is a separate library
+    assertThat(checks).contains("JUnitParameterMethodNotFound");
+    // JUnit 3 is identified by its own class
+    assertThat(checks).contains("JUnit3TestNotRun");
+  }
+
+  @Test
+  public void keepsChecksForLibrariesInJars(@TempDir Path tempDir) throws Exception {
+    var jar = tempDir.resolve("libs.jar");
+    try (var out = new ZipOutputStream(Files.newOutputStream(jar))) {
+      out.putNextEntry(new ZipEntry("com/google/common/truth/Truth.class"));
+      out.closeEntry();
+      out.putNextEntry(new ZipEntry("junitparams/Parameters.class"));
+      out.closeEntry();
+    }
+
+    var checks =
+        LibraryChecks.checksForMissingLibraries(
+            List.of(tempDir.resolve("missing").toFile(), jar.toFile()));
+    assertThat(checks).containsNoneOf("TruthSelfEquals", "JUnitParameterMethodNotFound");
+    assertThat(checks).containsAtLeast("CacheLoaderNull", "JUnit4TestNotRun");
+  }
+
+  @Test
+  public void keepsAllChecksForUnreadableJars(@TempDir Path tempDir) throws Exception {
+    File notAJar = Files.writeString(tempDir.resolve("not-a.jar"), "not a ZIP file").toFile();
+
+    assertThat(LibraryChecks.checksForMissingLibraries(List.of(notAJar))).isEmpty();
+  }
+}
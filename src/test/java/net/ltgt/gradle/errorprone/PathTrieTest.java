@@ -0,0 +1,105 @@
+package net.ltgt.gradle.errorprone;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.Objects.requireNonNull;
+
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+public class PathTrieTest {
+  @Test
+  public void emptyTrieHasNoRegex() {
+    var trie = new PathTrie();
+    assertThat(trie.isEmpty()).isTrue();
+    assertThat(trie.toRegex()).isNull();
+  }
+
+  @Test
+  public void matchesPathsWithOrWithoutLeadingSlash() {
+    var pattern = compile(new PathTrie().addPath("/project/src/Foo.java"));
+    assertThat(matches(pattern, "/project/src/Foo.java")).isTrue();
+    // The leading slash is optional, as Error Prone adds one before the drive letter on Windows
+    assertThat(matches(pattern, "project/src/Foo.java")).isTrue();
+    assertThat(matches(pattern, "/project/src/Foo.java.orig")).isFalse();
+    assertThat(matches(pattern, "/other/project/src/Foo.java")).isFalse();
+  }
+
+  @Test
+  public void matchesPathsThatArePrefixesOfOthers() {
+    var trie = new PathTrie().addPath("/project/src/Foo").addPath("/project/src/Foo/Bar.java");
+    var pattern = compile(trie);
+    assertThat(matches(pattern, "/project/src/Foo")).isTrue();
+    assertThat(matches(pattern, "/project/src/Foo/Bar.java")).isTrue();
+    assertThat(matches(pattern, "/project/src/Foo/Baz.java")).isFalse();
+    assertThat(matches(pattern, "/project/src/FooBar.java")).isFalse();
+    // Common prefixes are shared rather than repeated in an alternation
+    assertThat(trie.toRegex()).isEqualTo("/?project/src/Foo(?:/Bar\\.java)?");
+  }
+
+  @Test
+  public void matchesOverlappingPathsAndGlobs() {
+    var trie =
+        new PathTrie()
+            .add("/project/build/generated", "/**")
+            .addPath("/project/build/generated/Foo.java")
+            .add("/project", "/src/**/*Test.java")
+            .addPath("/project/src/main/Main.java");
+    var pattern = compile(trie);
+    assertThat(matches(pattern, "/project/build/generated/Foo.java")).isTrue();
+    assertThat(matches(pattern, "/project/build/generated/a/b/Bar.java")).isTrue();
+    assertThat(matches(pattern, "/project/build/generatedFoo.java")).isFalse();
+    assertThat(matches(pattern, "/project/src/FooTest.java")).isTrue();
+    assertThat(matches(pattern, "/project/src/a/b/FooTest.java")).isTrue();
+    assertThat(matches(pattern, "/project/src/a/FooTest.java/Bar.java")).isFalse();
+    assertThat(matches(pattern, "/project/src/main/Main.java")).isTrue();
+    assertThat(matches(pattern, "/project/src/main/Other.java")).isFalse();
+  }
+
+  @Test
+  public void matchesSingleNamesAndCharacters() {
+    var pattern =
+        compile(new PathTrie().add("/project", "/src/Foo?.java").add("/project", "/*.txt"));
+    assertThat(matches(pattern, "/project/src/Foo1.java")).isTrue();
+    assertThat(matches(pattern, "/project/src/Foo.java")).isFalse();
+    assertThat(matches(pattern, "/project/src/Foo12.java")).isFalse();
+    assertThat(matches(pattern, "/project/notes.txt")).isTrue();
+    assertThat(matches(pattern, "/project/docs/notes.txt")).isFalse();
+  }
+
+  @Test
+  public void removesDuplicates() {
+    assertThat(new PathTrie().addPath("/a/b").addPath("/a/b").toRegex())
+        .isEqualTo(new PathTrie().addPath("/a/b").toRegex());
+  }
+
+  @Test
+  public void escapesSpecialCharacters() {
+    var path = "/my project (1)/$dir+[x]/a.b^c|d/é€😀";
+    var trie = new PathTrie().addPath(path);
+    var regex = requireNonNull(trie.toRegex());
+    assertThat(regex).doesNotContainMatch("\\s");
+    var pattern = Pattern.compile(regex);
+    assertThat(matches(pattern, path)).isTrue();
+    assertThat(matches(pattern, "/my project (1)/$dir+[x]/aXb^c|d/é€😀")).isFalse();
+    assertThat(matches(pattern, "/my project 1/$dir+[x]/a.b^c|d/é€😀")).isFalse();
+    // Glob characters in the path are matched literally
+    var globChars = compile(new PathTrie().add("/a*b?", "/**"));
+    assertThat(matches(globChars, "/a*b?/c")).isTrue();
+    assertThat(matches(globChars, "/axxbx/c")).isFalse();
+  }
+
+  @Test
+  public void quotesPathsAsInRegex() {
+    var path = "/my project/a.b";
+    assertThat(PathTrie.quote(path)).isEqualTo("my\\x{20}project/a\\.b");
+    assertThat(new PathTrie().addPath(path).toRegex()).isEqualTo("/?" + PathTrie.quote(path));
+  }
+
+  private static Pattern compile(PathTrie trie) {
+    return Pattern.compile(requireNonNull(trie.toRegex()));
+  }
+
+  private static boolean matches(Pattern pattern, String path) {
+    return pattern.matcher(path).matches();
+  }
+}